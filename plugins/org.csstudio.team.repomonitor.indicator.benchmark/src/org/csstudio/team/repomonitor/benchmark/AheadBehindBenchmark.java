@@ -0,0 +1,55 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.csstudio.team.repomonitor.core.AheadBehindCounter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Count the commits ahead and behind without any cached results.
+ *
+ * Either only the checked out branch is counted, or all branches are
+ * counted with a single counter, as done when all branches are monitored.
+ */
+public class AheadBehindBenchmark extends Benchmark {
+
+	private boolean allBranches;
+
+	private Repository repository;
+
+	private List<ObjectId> localIds = new ArrayList<>();
+
+	private List<ObjectId> remoteIds = new ArrayList<>();
+
+	public AheadBehindBenchmark(boolean allBranches) {
+		super(allBranches ? "ahead-behind-all-branches" : "ahead-behind");
+		this.allBranches = allBranches;
+	}
+
+	@Override
+	public void setUp(SyntheticRepository synthetic) throws Exception {
+		repository = synthetic.getLocal();
+		for(String name : synthetic.getBranchNames()) {
+			localIds.add(repository.resolve(Constants.R_HEADS + name));
+			remoteIds.add(repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + name));
+			if(!allBranches) {
+				break;
+			}
+		}
+	}
+
+	@Override
+	public void run() throws Exception {
+		AheadBehindCounter counter = new AheadBehindCounter(repository);
+		try {
+			for(int i = 0; i < localIds.size(); i++) {
+				counter.count(localIds.get(i), remoteIds.get(i));
+			}
+		} finally {
+			counter.release();
+		}
+	}
+}
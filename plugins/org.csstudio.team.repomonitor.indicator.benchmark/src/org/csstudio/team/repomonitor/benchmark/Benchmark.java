@@ -0,0 +1,36 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+/**
+ * A single benchmark, run repeatedly by the {@link BenchmarkRunner}.
+ */
+public abstract class Benchmark {
+
+	private String name;
+
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepare the benchmark, not included in the measurements.
+	 */
+	public void setUp(SyntheticRepository repository) throws Exception {
+		// nothing by default //
+	}
+
+	/**
+	 * Run one operation of the benchmark.
+	 */
+	public abstract void run() throws Exception;
+
+	/**
+	 * Release the resources of the benchmark.
+	 */
+	public void tearDown() throws Exception {
+		// nothing by default //
+	}
+}
@@ -0,0 +1,179 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.csstudio.team.repomonitor.core.Histogram;
+
+/**
+ * Run the repository monitor benchmarks against a synthetic repository.
+ *
+ * Each benchmark is run for a number of warmup operations, which are not
+ * measured, and then for a number of measured operations. The time of each
+ * operation is reported in microseconds.
+ *
+ * Options are given as '-name=value':
+ * <pre>
+ *   -commits=5000      Commits in the shared history
+ *   -local=10          Commits only in the local branch
+ *   -remote=10         Commits only in the remote branch
+ *   -branches=10       Additional branches, each with an upstream
+ *   -tags=100          Tags in the remote
+ *   -warmup=10         Warmup operations
+ *   -iterations=50     Measured operations
+ *   -benchmarks=...    Comma separated names of the benchmarks to run (default all)
+ *   -dir=...           Directory for the repositories (default temporary)
+ *   -keep=false        Keep the repositories after the benchmarks
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+	private int warmup = 10;
+
+	private int iterations = 50;
+
+	private PrintStream out = System.out;
+
+	public static void main(String[] args) throws Exception {
+		Map<String,String> options = parseOptions(args);
+
+		File directory;
+		if(options.containsKey("dir")) {
+			directory = new File(options.get("dir"));
+		} else {
+			directory = File.createTempFile("repomonitor-benchmark", "");
+			if(!directory.delete()) {
+				throw new IOException("Unable to create directory: " + directory);
+			}
+		}
+
+		SyntheticRepository synthetic = new SyntheticRepository(directory);
+		synthetic.setCommits(getInt(options, "commits", 5000));
+		synthetic.setLocalCommits(getInt(options, "local", 10));
+		synthetic.setRemoteCommits(getInt(options, "remote", 10));
+		synthetic.setBranches(getInt(options, "branches", 10));
+		synthetic.setTags(getInt(options, "tags", 100));
+
+		BenchmarkRunner runner = new BenchmarkRunner();
+		runner.setWarmup(getInt(options, "warmup", 10));
+		runner.setIterations(getInt(options, "iterations", 50));
+
+		List<Benchmark> benchmarks = getBenchmarks();
+		if(options.containsKey("benchmarks")) {
+			List<String> names = Arrays.asList(options.get("benchmarks").split(","));
+			List<Benchmark> selected = new ArrayList<>();
+			for(Benchmark benchmark : benchmarks) {
+				if(names.contains(benchmark.getName())) {
+					selected.add(benchmark);
+				}
+			}
+			benchmarks = selected;
+		}
+
+		long start = System.currentTimeMillis();
+		synthetic.create();
+		runner.getOut().println("Repository: " + synthetic + " (created in " + (System.currentTimeMillis() - start) + "ms)");
+		try {
+			runner.run(synthetic, benchmarks);
+		} finally {
+			if(!Boolean.parseBoolean(options.get("keep"))) {
+				synthetic.delete();
+			}
+		}
+	}
+
+	/**
+	 * @return All the benchmarks, in the order they are run
+	 */
+	public static List<Benchmark> getBenchmarks() {
+		List<Benchmark> benchmarks = new ArrayList<>();
+		benchmarks.add(new AheadBehindBenchmark(false));
+		benchmarks.add(new AheadBehindBenchmark(true));
+		benchmarks.add(new CommitGraphBenchmark(false));
+		benchmarks.add(new CommitGraphBenchmark(true));
+		benchmarks.add(new UpstreamBenchmark(false));
+		benchmarks.add(new UpstreamBenchmark(true));
+		benchmarks.add(new MonitorCycleBenchmark(0));
+		// Changes the remote, so must be run last.
+		benchmarks.add(new MonitorCycleBenchmark(1));
+		return benchmarks;
+	}
+
+	/**
+	 * Run the benchmarks and print the results.
+	 */
+	public void run(SyntheticRepository synthetic, List<Benchmark> benchmarks) throws Exception {
+		out.println(String.format("%-28s %10s %10s %10s %10s %10s", "benchmark", "ops", "mean(us)", "p50(us)", "p95(us)", "max(us)"));
+		for(Benchmark benchmark : benchmarks) {
+			Histogram histogram = run(synthetic, benchmark);
+			out.println(String.format("%-28s %10d %10d %10d %10d %10d", benchmark.getName(), histogram.getCount(),
+					histogram.getMean(), histogram.getPercentile(0.5), histogram.getPercentile(0.95), histogram.getMax()));
+		}
+	}
+
+	/**
+	 * Run a single benchmark.
+	 *
+	 * @return The times of the measured operations in microseconds
+	 */
+	public Histogram run(SyntheticRepository synthetic, Benchmark benchmark) throws Exception {
+		Histogram histogram = new Histogram();
+		benchmark.setUp(synthetic);
+		try {
+			for(int i = 0; i < warmup; i++) {
+				benchmark.run();
+			}
+			for(int i = 0; i < iterations; i++) {
+				long start = System.nanoTime();
+				benchmark.run();
+				histogram.record((System.nanoTime() - start) / 1000);
+			}
+		} finally {
+			benchmark.tearDown();
+		}
+		return histogram;
+	}
+
+	public void setWarmup(int warmup) {
+		this.warmup = warmup;
+	}
+
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	public PrintStream getOut() {
+		return out;
+	}
+
+	public void setOut(PrintStream out) {
+		this.out = out;
+	}
+
+	protected static Map<String,String> parseOptions(String[] args) {
+		Map<String,String> options = new HashMap<>();
+		for(String arg : args) {
+			if(!arg.startsWith("-")) {
+				throw new IllegalArgumentException("Invalid option: " + arg);
+			}
+			int index = arg.indexOf('=');
+			if(index < 0) {
+				options.put(arg.substring(1), "true");
+			} else {
+				options.put(arg.substring(1, index), arg.substring(index + 1));
+			}
+		}
+		return options;
+	}
+
+	protected static int getInt(Map<String,String> options, String name, int defaultValue) {
+		String value = options.get(name);
+		return (value != null) ? Integer.parseInt(value) : defaultValue;
+	}
+}
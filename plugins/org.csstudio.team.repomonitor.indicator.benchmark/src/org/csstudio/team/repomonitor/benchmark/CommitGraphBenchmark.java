@@ -0,0 +1,56 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.csstudio.team.repomonitor.core.CommitGraph;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Count the commits ahead and behind with the commit graph index, which
+ * is built before the measurements, without any cached results.
+ *
+ * Either only the checked out branch is counted, or all branches are
+ * counted, as done when all branches are monitored.
+ */
+public class CommitGraphBenchmark extends Benchmark {
+
+	private boolean allBranches;
+
+	private CommitGraph graph;
+
+	private List<ObjectId> localIds = new ArrayList<>();
+
+	private List<ObjectId> remoteIds = new ArrayList<>();
+
+	public CommitGraphBenchmark(boolean allBranches) {
+		super(allBranches ? "commit-graph-all-branches" : "commit-graph");
+		this.allBranches = allBranches;
+	}
+
+	@Override
+	public void setUp(SyntheticRepository synthetic) throws Exception {
+		Repository repository = synthetic.getLocal();
+		for(String name : synthetic.getBranchNames()) {
+			localIds.add(repository.resolve(Constants.R_HEADS + name));
+			remoteIds.add(repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + name));
+			if(!allBranches) {
+				break;
+			}
+		}
+		graph = new CommitGraph();
+		for(int i = 0; i < localIds.size(); i++) {
+			graph.update(repository, NullProgressMonitor.INSTANCE, localIds.get(i), remoteIds.get(i));
+		}
+	}
+
+	@Override
+	public void run() throws Exception {
+		for(int i = 0; i < localIds.size(); i++) {
+			graph.count(localIds.get(i), remoteIds.get(i));
+		}
+	}
+}
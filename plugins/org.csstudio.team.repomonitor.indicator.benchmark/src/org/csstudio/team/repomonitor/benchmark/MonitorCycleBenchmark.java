@@ -0,0 +1,58 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.util.Collections;
+
+import org.csstudio.team.repomonitor.core.RepositoryMonitor;
+import org.csstudio.team.repomonitor.core.RepositoryStatus;
+import org.csstudio.team.repomonitor.core.RepositoryUpdater;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+
+/**
+ * The work done for one repository in a monitor cycle: fetch from the
+ * (local bare) remote, resolve the upstream and count the commits.
+ *
+ * Optionally new commits are added to the remote before each operation,
+ * so that every fetch transfers objects and the counts are updated.
+ */
+public class MonitorCycleBenchmark extends Benchmark {
+
+	private int newCommits;
+
+	private SyntheticRepository synthetic;
+
+	private RepositoryMonitor monitor;
+
+	private RepositoryUpdater updater;
+
+	/**
+	 * @param newCommits Number of commits added to the remote before each operation
+	 */
+	public MonitorCycleBenchmark(int newCommits) {
+		super((newCommits > 0) ? "monitor-cycle-changed" : "monitor-cycle");
+		this.newCommits = newCommits;
+	}
+
+	@Override
+	public void setUp(SyntheticRepository synthetic) throws Exception {
+		this.synthetic = synthetic;
+		monitor = new RepositoryMonitor();
+		monitor.setRepositories(Collections.singletonList(synthetic.getLocal()));
+		updater = monitor.newUpdater(synthetic.getLocal(), true);
+	}
+
+	@Override
+	public void run() throws Exception {
+		if(newCommits > 0) {
+			synthetic.addRemoteCommits(newCommits);
+		}
+		RepositoryStatus status = updater.update(NullProgressMonitor.INSTANCE);
+		if(status.isError()) {
+			throw new IllegalStateException(status.getError());
+		}
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		monitor.shutdown();
+	}
+}
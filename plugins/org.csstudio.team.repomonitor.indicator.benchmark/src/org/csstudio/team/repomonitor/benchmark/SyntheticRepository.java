@@ -0,0 +1,229 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Generate a local repository and a bare remote repository for benchmarks.
+ *
+ * Both repositories share a linear history of the given number of commits.
+ * The checked out branch (master) then has the given number of commits that
+ * exist only in the local repository, and the remote has the given number of
+ * commits that exist only in the remote repository. Each additional branch
+ * starts at a point in the shared history and has one local and one remote
+ * commit of its own, and has its upstream configured. Tags are created in the
+ * remote. The remote tracking refs are created by fetching from the remote.
+ *
+ * Commits all have the empty tree, so the repositories are quick to create
+ * while the commit graph is the same as a real repository of the same size.
+ */
+public class SyntheticRepository {
+
+	public static final String BRANCH = Constants.MASTER;
+
+	private int commits = 5000;
+
+	private int localCommits = 10;
+
+	private int remoteCommits = 10;
+
+	private int branches = 10;
+
+	private int tags = 100;
+
+	private File directory;
+
+	private Repository local;
+
+	private Repository remote;
+
+	private List<String> branchNames = new ArrayList<>();
+
+	private int time = 1300000000;
+
+	/**
+	 * @param directory Directory in which the repositories are created
+	 */
+	public SyntheticRepository(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Create the repositories.
+	 *
+	 * @throws IOException If the repositories can not be written
+	 * @throws GitAPIException If the initial fetch fails
+	 */
+	public void create() throws IOException, GitAPIException {
+		remote = new FileRepository(new File(directory, "remote.git"));
+		remote.create(true);
+		local = new FileRepository(new File(directory, "local" + File.separator + Constants.DOT_GIT));
+		local.create(false);
+
+		List<ObjectId> history = new ArrayList<>(commits);
+		ObjectId tip = null;
+		for(int i = 0; i < commits; i++) {
+			tip = commit(local, tip, "Commit " + i);
+			history.add(tip);
+		}
+		// The same commits are written to the remote, so the commit ids match.
+		time -= commits;
+		tip = null;
+		for(int i = 0; i < commits; i++) {
+			tip = commit(remote, tip, "Commit " + i);
+		}
+
+		ObjectId localTip = tip;
+		for(int i = 0; i < localCommits; i++) {
+			localTip = commit(local, localTip, "Local commit " + i);
+		}
+		ObjectId remoteTip = tip;
+		for(int i = 0; i < remoteCommits; i++) {
+			remoteTip = commit(remote, remoteTip, "Remote commit " + i);
+		}
+		updateRef(local, Constants.R_HEADS + BRANCH, localTip);
+		updateRef(remote, Constants.R_HEADS + BRANCH, remoteTip);
+		branchNames.add(BRANCH);
+
+		for(int i = 0; i < branches; i++) {
+			String name = "branch" + i;
+			ObjectId base = history.get((int) ((long) i * history.size() / Math.max(1, branches)));
+			updateRef(local, Constants.R_HEADS + name, commit(local, base, "Local commit on " + name));
+			updateRef(remote, Constants.R_HEADS + name, commit(remote, base, "Remote commit on " + name));
+			branchNames.add(name);
+		}
+
+		for(int i = 0; i < tags; i++) {
+			ObjectId target = history.get((int) ((long) i * history.size() / Math.max(1, tags)));
+			updateRef(remote, Constants.R_TAGS + "tag" + i, target);
+		}
+
+		StoredConfig config = local.getConfig();
+		config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME,
+				ConfigConstants.CONFIG_KEY_URL, remote.getDirectory().getAbsolutePath());
+		config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME,
+				"fetch", "+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*");
+		for(String name : branchNames) {
+			config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, name,
+					ConfigConstants.CONFIG_KEY_REMOTE, Constants.DEFAULT_REMOTE_NAME);
+			config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, name,
+					ConfigConstants.CONFIG_KEY_MERGE, Constants.R_HEADS + name);
+		}
+		config.save();
+
+		Git.wrap(local).fetch().setRemote(Constants.DEFAULT_REMOTE_NAME).call();
+	}
+
+	/**
+	 * Add new commits to the checked out branch in the remote.
+	 */
+	public void addRemoteCommits(int count) throws IOException {
+		ObjectId tip = remote.resolve(Constants.R_HEADS + BRANCH);
+		for(int i = 0; i < count; i++) {
+			tip = commit(remote, tip, "New remote commit " + time);
+		}
+		updateRef(remote, Constants.R_HEADS + BRANCH, tip);
+	}
+
+	/**
+	 * Close and delete the repositories.
+	 */
+	public void delete() throws IOException {
+		if(local != null) {
+			local.close();
+		}
+		if(remote != null) {
+			remote.close();
+		}
+		FileUtils.delete(directory, FileUtils.RECURSIVE);
+	}
+
+	/**
+	 * Write a commit with the empty tree.
+	 */
+	protected ObjectId commit(Repository repository, ObjectId parent, String message) throws IOException {
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			ObjectId tree = inserter.insert(new TreeFormatter());
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(tree);
+			if(parent != null) {
+				commit.setParentId(parent);
+			}
+			PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com", (time++) * 1000L, 0);
+			commit.setAuthor(ident);
+			commit.setCommitter(ident);
+			commit.setMessage(message);
+			ObjectId id = inserter.insert(commit);
+			inserter.flush();
+			return id;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	protected void updateRef(Repository repository, String name, ObjectId id) throws IOException {
+		RefUpdate update = repository.updateRef(name);
+		update.setNewObjectId(id);
+		update.setForceUpdate(true);
+		update.update();
+	}
+
+	public Repository getLocal() {
+		return local;
+	}
+
+	public Repository getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @return Short names of all local branches, starting with the checked out branch
+	 */
+	public List<String> getBranchNames() {
+		return branchNames;
+	}
+
+	public void setCommits(int commits) {
+		this.commits = commits;
+	}
+
+	public void setLocalCommits(int localCommits) {
+		this.localCommits = localCommits;
+	}
+
+	public void setRemoteCommits(int remoteCommits) {
+		this.remoteCommits = remoteCommits;
+	}
+
+	public void setBranches(int branches) {
+		this.branches = branches;
+	}
+
+	public void setTags(int tags) {
+		this.tags = tags;
+	}
+
+	@Override
+	public String toString() {
+		return "commits=" + commits + ", localCommits=" + localCommits + ", remoteCommits=" + remoteCommits
+				+ ", branches=" + branches + ", tags=" + tags;
+	}
+}
@@ -0,0 +1,46 @@
+package org.csstudio.team.repomonitor.benchmark;
+
+import java.util.List;
+
+import org.csstudio.team.repomonitor.core.UpstreamResolver;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Resolve the upstream of every local branch.
+ *
+ * The resolver is either reused, so that results are taken from its cache
+ * as in a running monitor, or created for each operation.
+ */
+public class UpstreamBenchmark extends Benchmark {
+
+	private boolean cached;
+
+	private Repository repository;
+
+	private List<String> branchNames;
+
+	private UpstreamResolver resolver = new UpstreamResolver();
+
+	public UpstreamBenchmark(boolean cached) {
+		super(cached ? "upstream-cached" : "upstream");
+		this.cached = cached;
+	}
+
+	@Override
+	public void setUp(SyntheticRepository synthetic) throws Exception {
+		repository = synthetic.getLocal();
+		branchNames = synthetic.getBranchNames();
+	}
+
+	@Override
+	public void run() throws Exception {
+		if(!cached) {
+			resolver = new UpstreamResolver();
+		}
+		for(String name : branchNames) {
+			if(resolver.resolve(repository, name) == null) {
+				throw new IllegalStateException("No upstream found for branch: " + name);
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that cached counts are used while the branch tips are unchanged,
+ * and are updated to the same counts as a fresh count when a tip moves.
+ */
+public class AheadBehindCacheTest {
+
+	private static final String BRANCH = "refs/heads/master";
+
+	private CommitHistory history;
+
+	private CountingCounter counter;
+
+	private AheadBehindCache cache;
+
+	private ObjectId base;
+
+	private ObjectId local;
+
+	private ObjectId remote;
+
+	@Before
+	public void setUp() throws IOException {
+		history = new CommitHistory();
+		counter = new CountingCounter(history.getRepository());
+		cache = new AheadBehindCache();
+		base = history.commits(null, 3);
+		local = history.commits(base, 2);
+		remote = history.commits(base, 3);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		counter.release();
+		history.delete();
+	}
+
+	@Test
+	public void testMiss() throws IOException {
+		Repository repository = history.getRepository();
+		assertNull(cache.getCached(repository, BRANCH, local, remote));
+		AheadBehind result = cache.get(repository, BRANCH, local, remote, counter);
+		assertEquals(1, counter.updates);
+		AheadBehindCounterTest.assertCount(2, 3, true, result);
+	}
+
+	@Test
+	public void testHitUnchangedTips() throws IOException {
+		Repository repository = history.getRepository();
+		AheadBehind result = cache.get(repository, BRANCH, local, remote, counter);
+		assertSame(result, cache.getCached(repository, BRANCH, local, remote));
+		assertSame(result, cache.get(repository, BRANCH, local, remote, counter));
+		assertEquals(1, counter.updates);
+	}
+
+	@Test
+	public void testMissLocalMoved() throws IOException {
+		Repository repository = history.getRepository();
+		cache.get(repository, BRANCH, local, remote, counter);
+		ObjectId moved = history.commit(local, remote);
+		assertNull(cache.getCached(repository, BRANCH, moved, remote));
+		assertMoved(moved, remote);
+	}
+
+	@Test
+	public void testMissRemoteMoved() throws IOException {
+		Repository repository = history.getRepository();
+		cache.get(repository, BRANCH, local, remote, counter);
+		ObjectId moved = history.commits(remote, 2);
+		assertNull(cache.getCached(repository, BRANCH, local, moved));
+		assertMoved(local, moved);
+	}
+
+	@Test
+	public void testBranchesCachedSeparately() throws IOException {
+		Repository repository = history.getRepository();
+		cache.get(repository, BRANCH, local, remote, counter);
+		assertNull(cache.getCached(repository, "refs/heads/other", local, remote));
+		cache.retainBranches(repository, Collections.<String>emptyList());
+		assertNull(cache.getCached(repository, BRANCH, local, remote));
+	}
+
+	@Test
+	public void testPut() throws IOException {
+		Repository repository = history.getRepository();
+		AheadBehind restored = new AheadBehind(local, remote, 2, 3, true);
+		cache.put(repository.getDirectory(), BRANCH, restored);
+		assertSame(restored, cache.get(repository, BRANCH, local, remote, counter));
+		assertEquals(0, counter.updates);
+	}
+
+	@Test
+	public void testEvict() throws IOException {
+		Repository repository = history.getRepository();
+		cache.get(repository, BRANCH, local, remote, counter);
+		assertTrue(cache.getMemoryUsage(repository.getDirectory()) > 0);
+		cache.evict(repository.getDirectory());
+		assertNull(cache.getCached(repository, BRANCH, local, remote));
+		assertEquals(0, cache.getMemoryUsage(repository.getDirectory()));
+	}
+
+	/**
+	 * Check that the cached result is updated to the counts of a fresh count.
+	 */
+	protected void assertMoved(ObjectId movedLocal, ObjectId movedRemote) throws IOException {
+		Repository repository = history.getRepository();
+		AheadBehind result = cache.get(repository, BRANCH, movedLocal, movedRemote, counter);
+		assertEquals(2, counter.updates);
+		AheadBehind expected = counter.count(movedLocal, movedRemote);
+		AheadBehindCounterTest.assertCount(expected.getAhead(), expected.getBehind(), expected.hasMergeBase(), result);
+		assertSame(result, cache.getCached(repository, BRANCH, movedLocal, movedRemote));
+	}
+
+	/**
+	 * Counter that records the number of updates done through the cache.
+	 */
+	protected static class CountingCounter extends AheadBehindCounter {
+
+		private int updates = 0;
+
+		public CountingCounter(Repository repository) {
+			super(repository);
+		}
+
+		@Override
+		public AheadBehind update(AheadBehind previous, AnyObjectId localId, AnyObjectId remoteId) throws IOException {
+			updates++;
+			return super.update(previous, localId, remoteId);
+		}
+	}
+}
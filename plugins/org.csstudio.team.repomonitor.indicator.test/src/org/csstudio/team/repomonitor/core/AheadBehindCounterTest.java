@@ -0,0 +1,222 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the counts of commits ahead and behind on histories written to a
+ * temporary repository.
+ */
+public class AheadBehindCounterTest {
+
+	private CommitHistory history;
+
+	private AheadBehindCounter counter;
+
+	@Before
+	public void setUp() throws IOException {
+		history = new CommitHistory();
+		counter = new AheadBehindCounter(history.getRepository());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		counter.release();
+		history.delete();
+	}
+
+	@Test
+	public void testIdenticalTips() throws IOException {
+		ObjectId tip = history.commits(null, 3);
+		assertCount(0, 0, true, counter.count(tip, tip));
+	}
+
+	@Test
+	public void testAheadOnly() throws IOException {
+		ObjectId remote = history.commits(null, 3);
+		ObjectId local = history.commits(remote, 2);
+		assertCount(2, 0, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testBehindOnly() throws IOException {
+		ObjectId local = history.commits(null, 3);
+		ObjectId remote = history.commits(local, 4);
+		assertCount(0, 4, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testDiverged() throws IOException {
+		ObjectId base = history.commits(null, 3);
+		ObjectId local = history.commits(base, 2);
+		ObjectId remote = history.commits(base, 5);
+		assertCount(2, 5, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testMergedRemote() throws IOException {
+		ObjectId base = history.commits(null, 3);
+		ObjectId remote = history.commits(base, 3);
+		ObjectId merge = history.commit(history.commits(base, 1), remote);
+		ObjectId local = history.commits(merge, 1);
+		// The local commits and the merge commit are ahead.
+		assertCount(3, 0, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testMergedBothWays() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId side = history.commits(base, 2);
+		ObjectId local = history.commit(history.commits(base, 1), side);
+		ObjectId remote = history.commits(history.commit(history.commits(base, 3), side), 1);
+		assertCount(2, 5, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testCrissCrossMerge() throws IOException {
+		ObjectId root = history.commits(null, 2);
+		ObjectId first = history.commits(root, 1);
+		ObjectId second = history.commits(root, 2);
+		// Both merges have the same two merge bases.
+		ObjectId local = history.commits(history.commit(first, second), 2);
+		ObjectId remote = history.commits(history.commit(second, first), 1);
+		assertCount(3, 2, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testNoMergeBase() throws IOException {
+		ObjectId local = history.commits(null, 3);
+		ObjectId remote = history.commits(null, 2);
+		AheadBehind result = counter.count(local, remote);
+		assertFalse(result.hasMergeBase());
+		assertEquals(3, result.getAhead());
+		assertEquals(2, result.getBehind());
+	}
+
+	@Test
+	public void testNoReflogs() throws IOException {
+		ObjectId base = history.commits(null, 3);
+		history.updateRef(Constants.R_HEADS + Constants.MASTER, history.commits(base, 2));
+		history.updateRef(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + Constants.MASTER, history.commits(base, 1));
+
+		// The counts only depend on the refs, not on their history.
+		Repository repository = history.getRepository();
+		FileUtils.delete(new File(repository.getDirectory(), Constants.LOGS), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+		ObjectId local = repository.resolve(Constants.R_HEADS + Constants.MASTER);
+		ObjectId remote = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + Constants.MASTER);
+		assertCount(2, 1, true, counter.count(local, remote));
+	}
+
+	@Test
+	public void testUpdateUnchanged() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 1);
+		ObjectId remote = history.commits(base, 2);
+		AheadBehind previous = counter.count(local, remote);
+		assertSame(previous, counter.update(previous, local, remote));
+	}
+
+	@Test
+	public void testUpdateLocalMoved() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 1);
+		ObjectId remote = history.commits(base, 2);
+		AheadBehind previous = counter.count(local, remote);
+		ObjectId moved = history.commits(local, 3);
+		assertUpdate(previous, moved, remote);
+	}
+
+	@Test
+	public void testUpdateRemoteMoved() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 1);
+		ObjectId remote = history.commits(base, 2);
+		AheadBehind previous = counter.count(local, remote);
+		ObjectId moved = history.commits(remote, 4);
+		assertUpdate(previous, local, moved);
+	}
+
+	@Test
+	public void testUpdateLocalMergedRemote() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 2);
+		ObjectId remote = history.commits(base, 3);
+		AheadBehind previous = counter.count(local, remote);
+		ObjectId merge = history.commit(local, remote);
+		assertUpdate(previous, merge, remote);
+		assertUpdate(previous, history.commits(merge, 1), remote);
+	}
+
+	@Test
+	public void testUpdateLocalMergedPartOfRemote() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 2);
+		ObjectId fetched = history.commits(base, 2);
+		ObjectId remote = history.commits(fetched, 2);
+		AheadBehind previous = counter.count(local, remote);
+		assertUpdate(previous, history.commit(local, fetched), remote);
+	}
+
+	@Test
+	public void testUpdateRemoteMergedLocal() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 2);
+		ObjectId remote = history.commits(base, 3);
+		AheadBehind previous = counter.count(local, remote);
+		assertUpdate(previous, local, history.commit(remote, local));
+	}
+
+	@Test
+	public void testUpdateBothMoved() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 1);
+		ObjectId remote = history.commits(base, 2);
+		AheadBehind previous = counter.count(local, remote);
+		assertUpdate(previous, history.commits(local, 2), history.commits(remote, 1));
+	}
+
+	@Test
+	public void testUpdateLocalReset() throws IOException {
+		ObjectId base = history.commits(null, 2);
+		ObjectId local = history.commits(base, 3);
+		ObjectId remote = history.commits(base, 2);
+		AheadBehind previous = counter.count(local, remote);
+		assertUpdate(previous, history.commits(base, 1), remote);
+	}
+
+	@Test
+	public void testUpdateNoPrevious() throws IOException {
+		ObjectId local = history.commits(null, 2);
+		ObjectId remote = history.commits(null, 1);
+		assertUpdate(null, local, remote);
+	}
+
+	/**
+	 * Check that updating the previous result gives the same counts as counting from scratch.
+	 */
+	protected void assertUpdate(AheadBehind previous, ObjectId local, ObjectId remote) throws IOException {
+		AheadBehind expected = counter.count(local, remote);
+		AheadBehind updated = counter.update(previous, local, remote);
+		assertEquals(expected.getLocalId(), updated.getLocalId());
+		assertEquals(expected.getRemoteId(), updated.getRemoteId());
+		assertCount(expected.getAhead(), expected.getBehind(), expected.hasMergeBase(), updated);
+	}
+
+	protected static void assertCount(int ahead, int behind, boolean mergeBase, AheadBehind result) {
+		assertEquals("ahead", ahead, result.getAhead());
+		assertEquals("behind", behind, result.getBehind());
+		assertEquals("merge base", mergeBase, result.hasMergeBase());
+	}
+}
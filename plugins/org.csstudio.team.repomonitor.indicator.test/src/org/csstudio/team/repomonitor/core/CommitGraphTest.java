@@ -0,0 +1,273 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the counts of the commit graph index are the same as the counts
+ * of {@link AheadBehindCounter}, for every pair of commits of a history.
+ */
+public class CommitGraphTest {
+
+	private CommitHistory history;
+
+	private AheadBehindCounter counter;
+
+	private List<ObjectId> commits = new ArrayList<>();
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		history = new CommitHistory();
+		counter = new AheadBehindCounter(history.getRepository());
+		file = File.createTempFile("repomonitor", ".graph");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		counter.release();
+		history.delete();
+		FileUtils.delete(file, FileUtils.SKIP_MISSING);
+	}
+
+	@Test
+	public void testLinearHistory() throws IOException {
+		commits(null, 6);
+		assertCounts(newGraph());
+	}
+
+	@Test
+	public void testMergeHistory() throws IOException {
+		ObjectId base = commits(null, 3);
+		ObjectId side = commits(base, 3);
+		ObjectId merge = commit(commits(base, 2), side);
+		commits(merge, 2);
+		commits(side, 2);
+		assertCounts(newGraph());
+	}
+
+	@Test
+	public void testCrissCrossHistory() throws IOException {
+		ObjectId root = commits(null, 2);
+		ObjectId first = commits(root, 2);
+		ObjectId second = commits(root, 1);
+		commits(commit(first, second), 2);
+		commits(commit(second, first), 3);
+		assertCounts(newGraph());
+	}
+
+	@Test
+	public void testUnrelatedRoots() throws IOException {
+		ObjectId first = commits(null, 3);
+		ObjectId second = commits(null, 2);
+		commits(commit(first, second), 1);
+		commits(null, 1);
+		assertCounts(newGraph());
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws IOException {
+		ObjectId base = commits(null, 3);
+		ObjectId local = commits(base, 2);
+		ObjectId remote = commits(base, 2);
+		CommitGraph graph = newGraph();
+		int size = graph.size();
+
+		ObjectId merge = commit(local, remote);
+		assertNull(graph.count(merge, remote));
+		assertEquals(1, graph.update(history.getRepository(), NullProgressMonitor.INSTANCE, merge, remote));
+		assertEquals(size + 1, graph.size());
+		assertCounts(graph);
+	}
+
+	@Test
+	public void testUpdateLimit() throws IOException {
+		ObjectId local = commits(null, 10);
+		ObjectId remote = commits(local, 2);
+		CommitGraph graph = new CommitGraph();
+		ObjectReader reader = history.getRepository().newObjectReader();
+		try {
+			assertEquals(-1, graph.update(reader, NullProgressMonitor.INSTANCE, 5, local, remote));
+			assertNull(graph.count(local, remote));
+			assertEquals(12, graph.update(reader, NullProgressMonitor.INSTANCE, 0, local, remote));
+			// Only the new commits count against the limit.
+			ObjectId moved = commits(remote, 3);
+			assertEquals(3, graph.update(reader, NullProgressMonitor.INSTANCE, 5, local, moved));
+		} finally {
+			reader.release();
+		}
+		assertCounts(graph);
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		ObjectId root = commits(null, 2);
+		commits(commit(commits(root, 2), commits(root, 3)), 2);
+		commits(null, 2);
+		CommitGraph graph = newGraph();
+		assertTrue(graph.isModified());
+		graph.write(file);
+		assertFalse(graph.isModified());
+
+		CommitGraph read = new CommitGraph();
+		read.read(file);
+		assertEquals(graph.size(), read.size());
+		assertFalse(read.isModified());
+		for(ObjectId id : commits) {
+			assertEquals(graph.getGeneration(id), read.getGeneration(id));
+		}
+		assertCounts(read);
+	}
+
+	@Test
+	public void testReadTruncated() throws IOException {
+		commits(null, 4);
+		newGraph().write(file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 4);
+		} finally {
+			raf.close();
+		}
+		assertReadFails();
+	}
+
+	@Test
+	public void testReadBadMagic() throws IOException {
+		commits(null, 4);
+		newGraph().write(file);
+		writeInt(0, 0);
+		assertReadFails();
+	}
+
+	@Test
+	public void testReadCorruptParent() throws IOException {
+		commits(null, 4);
+		CommitGraph graph = newGraph();
+		graph.write(file);
+		// The parent of the second commit points to a commit after it.
+		int size = graph.size();
+		writeInt(16 + 4 * (size * 5 + size + size + 1), 3);
+		assertReadFails();
+	}
+
+	@Test
+	public void testReadCorruptParentStarts() throws IOException {
+		commits(null, 4);
+		CommitGraph graph = newGraph();
+		graph.write(file);
+		// The parents of the third commit start after those of the fourth.
+		int size = graph.size();
+		writeInt(16 + 4 * (size * 5 + size + 2), 4);
+		assertReadFails();
+	}
+
+	@Test
+	public void testReadCorruptSorted() throws IOException {
+		commits(null, 4);
+		CommitGraph graph = newGraph();
+		graph.write(file);
+		int size = graph.size();
+		writeInt(16 + 4 * (size * 5 + size + size + 1 + (size - 1)) + 4, size);
+		assertReadFails();
+	}
+
+	@Test
+	public void testCacheRebuildsCorruptFile() throws IOException {
+		File directory = File.createTempFile("repomonitor", "");
+		FileUtils.delete(directory);
+		try {
+			CommitGraphCache cache = new CommitGraphCache(directory);
+			commits(null, 4);
+			FileUtils.mkdirs(directory);
+			FileUtils.delete(file);
+			file = cache.getFile(history.getRepository().getDirectory());
+			newGraph().write(file);
+			writeInt(16 + 4 * (4 * 5 + 4 + 4 + 1), 3);
+
+			CommitGraph graph = cache.get(history.getRepository());
+			assertEquals(0, graph.size());
+			graph.update(history.getRepository(), NullProgressMonitor.INSTANCE, commits.get(commits.size() - 1));
+			assertCounts(graph);
+		} finally {
+			FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+		}
+	}
+
+	protected ObjectId commit(ObjectId... parents) throws IOException {
+		ObjectId id = history.commit(parents);
+		commits.add(id);
+		return id;
+	}
+
+	protected ObjectId commits(ObjectId parent, int count) throws IOException {
+		ObjectId tip = parent;
+		for(int i = 0; i < count; i++) {
+			tip = (tip != null) ? commit(tip) : commit();
+		}
+		return tip;
+	}
+
+	/**
+	 * @return An index of all commits of the history
+	 */
+	protected CommitGraph newGraph() throws IOException {
+		CommitGraph graph = new CommitGraph();
+		graph.update(history.getRepository(), NullProgressMonitor.INSTANCE, commits.toArray(new ObjectId[commits.size()]));
+		assertEquals(commits.size(), graph.size());
+		return graph;
+	}
+
+	/**
+	 * Check the counts of the index for every pair of commits.
+	 */
+	protected void assertCounts(CommitGraph graph) throws IOException {
+		for(ObjectId local : commits) {
+			for(ObjectId remote : commits) {
+				AheadBehind expected = counter.count(local, remote);
+				AheadBehind result = graph.count(local, remote);
+				String message = local.name() + ".." + remote.name();
+				assertEquals(message, expected.getAhead(), result.getAhead());
+				assertEquals(message, expected.getBehind(), result.getBehind());
+				assertEquals(message, expected.hasMergeBase(), result.hasMergeBase());
+			}
+		}
+	}
+
+	protected void writeInt(long offset, int value) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(offset);
+			raf.writeInt(value);
+		} finally {
+			raf.close();
+		}
+	}
+
+	protected void assertReadFails() {
+		try {
+			new CommitGraph().read(file);
+			fail("Corrupt commit graph file was read");
+		} catch(IOException e) {
+			// Expected. //
+		}
+	}
+}
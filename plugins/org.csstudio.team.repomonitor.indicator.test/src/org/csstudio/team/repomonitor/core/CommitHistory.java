@@ -0,0 +1,94 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Bare repository in a temporary directory, in which commits are written
+ * with any parents, so that histories with merges, several merge bases or
+ * unrelated roots are quick to create.
+ *
+ * Commits all have the empty tree.
+ */
+public class CommitHistory {
+
+	private File directory;
+
+	private Repository repository;
+
+	private long time = 1300000000L;
+
+	public CommitHistory() throws IOException {
+		directory = File.createTempFile("repomonitor", ".git");
+		FileUtils.delete(directory);
+		repository = new FileRepository(directory);
+		repository.create(true);
+	}
+
+	/**
+	 * Write a commit with the given parents (none for a root commit).
+	 */
+	public ObjectId commit(ObjectId... parents) throws IOException {
+		ObjectInserter inserter = repository.newObjectInserter();
+		try {
+			CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(inserter.insert(new TreeFormatter()));
+			commit.setParentIds(parents);
+			PersonIdent ident = new PersonIdent("Test", "test@example.com", (time++) * 1000L, 0);
+			commit.setAuthor(ident);
+			commit.setCommitter(ident);
+			commit.setMessage("Commit " + time);
+			ObjectId id = inserter.insert(commit);
+			inserter.flush();
+			return id;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	/**
+	 * Write a linear history of the given number of commits.
+	 *
+	 * @param parent Parent of the first commit (null for a new root)
+	 * @return The last commit, or the parent if the count is zero
+	 */
+	public ObjectId commits(ObjectId parent, int count) throws IOException {
+		ObjectId tip = parent;
+		for(int i = 0; i < count; i++) {
+			tip = (tip != null) ? commit(tip) : commit();
+		}
+		return tip;
+	}
+
+	/**
+	 * Point the given ref to a commit.
+	 */
+	public void updateRef(String name, ObjectId id) throws IOException {
+		RefUpdate update = repository.updateRef(name);
+		update.setNewObjectId(id);
+		update.setForceUpdate(true);
+		update.update();
+	}
+
+	public Repository getRepository() {
+		return repository;
+	}
+
+	/**
+	 * Close and delete the repository.
+	 */
+	public void delete() throws IOException {
+		repository.close();
+		FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.RETRY);
+	}
+}
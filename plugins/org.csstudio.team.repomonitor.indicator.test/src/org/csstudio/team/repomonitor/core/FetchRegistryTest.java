@@ -0,0 +1,246 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.FetchResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the sharing of fetches with stub fetches, which count their calls
+ * and can be held until the test releases them.
+ */
+public class FetchRegistryTest {
+
+	private static final String KEY = FetchRegistry.getKey(new File("repository"), "ssh://example.com/repository", "");
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testJoinInFlight() throws Exception {
+		FetchRegistry registry = new FetchRegistry(0);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		StubFetch joined = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		Future<FetchResult> owner = submit(registry, fetch, NullProgressMonitor.INSTANCE);
+		fetch.awaitStarted();
+		Future<FetchResult> joiner = submit(registry, joined, NullProgressMonitor.INSTANCE);
+		// Give the second request time to join before the fetch completes.
+		Thread.sleep(200);
+		fetch.release();
+		owner.get(5, TimeUnit.SECONDS);
+		joiner.get(5, TimeUnit.SECONDS);
+		assertEquals(1, fetch.calls.get());
+		assertEquals(0, joined.calls.get());
+	}
+
+	@Test
+	public void testReuseWithinTtl() throws Exception {
+		FetchRegistry registry = new FetchRegistry(60000);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		fetch.release();
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		assertEquals(1, fetch.calls.get());
+		// A fetch with another key is not shared.
+		registry.fetch(KEY + "other", fetch, NullProgressMonitor.INSTANCE);
+		assertEquals(2, fetch.calls.get());
+	}
+
+	@Test
+	public void testExpiredAfterTtl() throws Exception {
+		FetchRegistry registry = new FetchRegistry(50);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		fetch.release();
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		Thread.sleep(100);
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		assertEquals(2, fetch.calls.get());
+	}
+
+	@Test
+	public void testNoReuseWithoutTtl() throws Exception {
+		FetchRegistry registry = new FetchRegistry(0);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		fetch.release();
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		assertEquals(2, fetch.calls.get());
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		FetchRegistry registry = new FetchRegistry(60000);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		fetch.release();
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		registry.clear();
+		registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+		assertEquals(2, fetch.calls.get());
+	}
+
+	@Test
+	public void testFailureNotReused() throws Exception {
+		FetchRegistry registry = new FetchRegistry(60000);
+		MonitorException failure = new MonitorException("Fetch failed");
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, failure);
+		fetch.release();
+		for(int i = 0; i < 2; i++) {
+			try {
+				registry.fetch(KEY, fetch, NullProgressMonitor.INSTANCE);
+				fail("Fetch did not fail");
+			} catch(MonitorException e) {
+				assertSame(failure, e);
+			}
+		}
+		assertEquals(2, fetch.calls.get());
+	}
+
+	@Test
+	public void testFailureSharedWithJoiner() throws Exception {
+		FetchRegistry registry = new FetchRegistry(0);
+		MonitorException failure = new MonitorException("Fetch failed");
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, failure);
+		StubFetch joined = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		Future<FetchResult> owner = submit(registry, fetch, NullProgressMonitor.INSTANCE);
+		fetch.awaitStarted();
+		Future<FetchResult> joiner = submit(registry, joined, NullProgressMonitor.INSTANCE);
+		Thread.sleep(200);
+		fetch.release();
+		assertFailure(failure, owner);
+		assertFailure(failure, joiner);
+		assertEquals(0, joined.calls.get());
+	}
+
+	@Test
+	public void testOwnerCanceled() throws Exception {
+		FetchRegistry registry = new FetchRegistry(0);
+		CancelableProgressMonitor ownerProgress = new CancelableProgressMonitor(NullProgressMonitor.INSTANCE, 0);
+		StubFetch fetch = new StubFetch(ownerProgress, null);
+		StubFetch joined = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		joined.release();
+		Future<FetchResult> owner = submit(registry, fetch, ownerProgress);
+		fetch.awaitStarted();
+		Future<FetchResult> joiner = submit(registry, joined, NullProgressMonitor.INSTANCE);
+		Thread.sleep(200);
+		ownerProgress.cancel();
+		fetch.release();
+		try {
+			owner.get(5, TimeUnit.SECONDS);
+			fail("Canceled fetch did not fail");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof MonitorException);
+		}
+		// The request that joined starts the fetch again, rather than failing.
+		joiner.get(5, TimeUnit.SECONDS);
+		assertEquals(1, joined.calls.get());
+	}
+
+	@Test
+	public void testJoinerCanceled() throws Exception {
+		FetchRegistry registry = new FetchRegistry(0);
+		StubFetch fetch = new StubFetch(NullProgressMonitor.INSTANCE, null);
+		CancelableProgressMonitor joinerProgress = new CancelableProgressMonitor(NullProgressMonitor.INSTANCE, 0);
+		Future<FetchResult> owner = submit(registry, fetch, NullProgressMonitor.INSTANCE);
+		fetch.awaitStarted();
+		Future<FetchResult> joiner = submit(registry, fetch, joinerProgress);
+		Thread.sleep(200);
+		joinerProgress.cancel();
+		try {
+			joiner.get(5, TimeUnit.SECONDS);
+			fail("Canceled request did not fail");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof MonitorException);
+		}
+		fetch.release();
+		owner.get(5, TimeUnit.SECONDS);
+		assertEquals(1, fetch.calls.get());
+	}
+
+	protected Future<FetchResult> submit(final FetchRegistry registry, final StubFetch fetch, final ProgressMonitor progress) {
+		return executor.submit(new Callable<FetchResult>() {
+			@Override
+			public FetchResult call() throws Exception {
+				return registry.fetch(KEY, fetch, progress);
+			}
+		});
+	}
+
+	protected void assertFailure(MonitorException failure, Future<FetchResult> request) throws Exception {
+		try {
+			request.get(5, TimeUnit.SECONDS);
+			fail("Fetch did not fail");
+		} catch(ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	/**
+	 * Fetch that waits until released, then fails if its request was
+	 * canceled or with the given failure, or else returns no result.
+	 */
+	protected static class StubFetch implements Callable<FetchResult> {
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private final ProgressMonitor progress;
+
+		private final MonitorException failure;
+
+		public StubFetch(ProgressMonitor progress, MonitorException failure) {
+			this.progress = progress;
+			this.failure = failure;
+		}
+
+		@Override
+		public FetchResult call() throws Exception {
+			calls.incrementAndGet();
+			started.countDown();
+			released.await();
+			if(progress.isCancelled()) {
+				throw new MonitorException("Repository update canceled");
+			}
+			if(failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+
+		public void awaitStarted() throws InterruptedException {
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+		}
+
+		public void release() {
+			released.countDown();
+		}
+	}
+}
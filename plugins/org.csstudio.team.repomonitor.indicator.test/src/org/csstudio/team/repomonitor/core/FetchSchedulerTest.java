@@ -0,0 +1,205 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.junit.Test;
+
+/**
+ * Test the limits, ordering, timeout and deadline of the scheduler with
+ * stub tasks that each run on their own thread for a given time.
+ */
+public class FetchSchedulerTest {
+
+	private final Object lock = new Object();
+
+	private List<String> started = new ArrayList<>();
+
+	private Map<String,Integer> runningPerHost = new HashMap<>();
+
+	private int running = 0;
+
+	private int maxRunning = 0;
+
+	private int maxPerHost = 0;
+
+	@Test
+	public void testConcurrencyLimit() {
+		FetchScheduler scheduler = new FetchScheduler(3, 10, 0);
+		for(int i = 0; i < 10; i++) {
+			scheduler.add(new StubTask("task" + i, "host" + (i % 4), 50), 0);
+		}
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertEquals(10, started.size());
+		assertEquals(3, maxRunning);
+		assertEquals(0, running);
+	}
+
+	@Test
+	public void testPerHostLimit() {
+		FetchScheduler scheduler = new FetchScheduler(4, 2, 0);
+		for(int i = 0; i < 6; i++) {
+			scheduler.add(new StubTask("task" + i, "example.com", 50), 0);
+		}
+		scheduler.add(new StubTask("local", null, 50), 0);
+		scheduler.add(new StubTask("other", "example.org", 50), 0);
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertEquals(8, started.size());
+		assertEquals(2, maxPerHost);
+		// Jobs on other hosts are started while the busy host is at its limit.
+		assertTrue(started.indexOf("local") < 4);
+		assertTrue(started.indexOf("other") < 4);
+	}
+
+	@Test
+	public void testPriorityOrder() {
+		FetchScheduler scheduler = new FetchScheduler(1, 1, 0);
+		scheduler.add(new StubTask("low", null, 10), 1);
+		scheduler.add(new StubTask("high", null, 10), 5);
+		scheduler.add(new StubTask("medium", null, 10), 3);
+		scheduler.add(new StubTask("medium2", null, 10), 3);
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertEquals(Arrays.asList("high", "medium", "medium2", "low"), started);
+	}
+
+	@Test
+	public void testTimeout() {
+		FetchScheduler scheduler = new FetchScheduler(2, 2, 100);
+		StubTask hung = new StubTask("hung", null, 10000);
+		StubTask quick = new StubTask("quick", null, 10);
+		scheduler.add(hung, 0);
+		scheduler.add(quick, 0);
+		long start = System.currentTimeMillis();
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(scheduler.isTimedOut(hung));
+		assertTrue(hung.canceled);
+		assertFalse(scheduler.isTimedOut(quick));
+		assertFalse(quick.canceled);
+	}
+
+	@Test
+	public void testTimedOutJobKeepsSlot() {
+		FetchScheduler scheduler = new FetchScheduler(1, 1, 100);
+		// Stops 400ms after it is canceled, so it runs past its timeout.
+		StubTask hung = new StubTask("hung", "example.com", 10000);
+		hung.stopDelay = 400;
+		StubTask next = new StubTask("next", "example.com", 10);
+		scheduler.add(hung, 1);
+		scheduler.add(next, 0);
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertTrue(scheduler.isTimedOut(hung));
+		assertEquals(Arrays.asList("hung", "next"), started);
+		assertEquals(1, maxRunning);
+		assertTrue(next.startTime >= hung.endTime);
+	}
+
+	@Test
+	public void testDeadline() {
+		FetchScheduler scheduler = new FetchScheduler(1, 1, 0);
+		scheduler.setDeadline(System.nanoTime() + 100 * 1000000L);
+		StubTask first = new StubTask("first", null, 300);
+		StubTask second = new StubTask("second", null, 300);
+		scheduler.add(first, 1);
+		scheduler.add(second, 0);
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		assertEquals(Arrays.asList("first"), started);
+		assertFalse(scheduler.isDeferred(first));
+		assertTrue(scheduler.isDeferred(second));
+		assertFalse(scheduler.isTimedOut(second));
+	}
+
+	@Test
+	public void testCanceled() {
+		FetchScheduler scheduler = new FetchScheduler(1, 1, 0);
+		StubTask task = new StubTask("task", null, 10);
+		scheduler.add(task, 0);
+		scheduler.run(new CancelableProgressMonitor(NullProgressMonitor.INSTANCE, System.nanoTime()));
+		assertTrue(started.isEmpty());
+		assertTrue(scheduler.isDeferred(task));
+	}
+
+	/**
+	 * Task that runs until its duration has elapsed, or until it is canceled
+	 * and its stop delay has elapsed.
+	 */
+	protected class StubTask implements IFetchTask {
+
+		private final String name;
+
+		private final String host;
+
+		private final long duration;
+
+		private volatile long stopDelay = 0;
+
+		private volatile boolean canceled = false;
+
+		private volatile long startTime;
+
+		private volatile long endTime;
+
+		public StubTask(String name, String host, long duration) {
+			this.name = name;
+			this.host = host;
+			this.duration = duration;
+		}
+
+		@Override
+		public String getRemoteHost() {
+			return host;
+		}
+
+		@Override
+		public void start(final FetchScheduler scheduler) {
+			synchronized(lock) {
+				started.add(name);
+				running++;
+				maxRunning = Math.max(maxRunning, running);
+				String key = String.valueOf(host);
+				Integer count = runningPerHost.get(key);
+				count = (count == null) ? 1 : count + 1;
+				runningPerHost.put(key, count);
+				maxPerHost = Math.max(maxPerHost, count);
+			}
+			startTime = System.currentTimeMillis();
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						long end = startTime + duration;
+						while(!canceled && System.currentTimeMillis() < end) {
+							Thread.sleep(5);
+						}
+						if(canceled) {
+							Thread.sleep(stopDelay);
+						}
+					} catch(InterruptedException e) {
+						// Stop. //
+					}
+					endTime = System.currentTimeMillis();
+					synchronized(lock) {
+						running--;
+						String key = String.valueOf(host);
+						runningPerHost.put(key, runningPerHost.get(key) - 1);
+					}
+					scheduler.done(StubTask.this);
+				}
+			}.start();
+		}
+
+		@Override
+		public boolean cancel() {
+			canceled = true;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the polling intervals, using a policy without jitter except where
+ * the jitter itself is tested.
+ */
+public class PollingPolicyTest {
+
+	private static final File A = new File("a");
+
+	private static final File B = new File("b");
+
+	private static final File C = new File("c");
+
+	private static final File D = new File("d");
+
+	private PollingPolicy policy;
+
+	@Before
+	public void setUp() {
+		policy = new NoJitterPolicy();
+		policy.configure(1000, 100, 16000, 0);
+	}
+
+	@Test
+	public void testHalvedWhenChanged() {
+		long[] expected = { 500, 250, 125, 100, 100 };
+		for(long delay : expected) {
+			policy.update(A, true, true, 0);
+			assertEquals(delay, policy.getNextDelay(0));
+		}
+	}
+
+	@Test
+	public void testDoubledWhenUnchanged() {
+		long[] expected = { 2000, 4000, 8000, 16000, 16000 };
+		for(long delay : expected) {
+			policy.update(A, true, false, 0);
+			assertEquals(delay, policy.getNextDelay(0));
+		}
+	}
+
+	@Test
+	public void testFailureBackoff() {
+		long[] expected = { 1000, 2000, 4000, 8000, 16000, 16000 };
+		for(long delay : expected) {
+			policy.update(A, false, false, 0);
+			assertEquals(delay, policy.getNextDelay(0));
+		}
+		for(int i = 0; i < 40; i++) {
+			policy.update(A, false, false, 0);
+		}
+		assertEquals(16000, policy.getNextDelay(0));
+
+		// A success continues from the interval before the failures.
+		policy.update(A, true, false, 0);
+		assertEquals(2000, policy.getNextDelay(0));
+		policy.update(A, false, false, 0);
+		assertEquals(1000, policy.getNextDelay(0));
+	}
+
+	@Test
+	public void testJitterBounds() {
+		PollingPolicy jittered = new PollingPolicy();
+		jittered.configure(1000, 100, 16000, 0);
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for(int i = 0; i < 1000; i++) {
+			long delay = jittered.jitter(10000);
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+		assertTrue(min >= 8000);
+		assertTrue(max <= 12000);
+		assertTrue(max > min);
+
+		jittered.update(A, true, false, 0);
+		long delay = jittered.getNextDelay(0);
+		assertTrue(delay >= 1600 && delay <= 2400);
+	}
+
+	@Test
+	public void testMaxFetches() {
+		policy.configure(1000, 100, 16000, 2);
+		List<File> due = policy.selectDue(Arrays.asList(A, B, C, D), 0, false);
+		assertEquals(2, due.size());
+		// The others remain due, so the next cycle runs after the minimum interval.
+		assertEquals(100, policy.getNextDelay(0));
+
+		policy.configure(1000, 100, 16000, 0);
+		assertEquals(4, policy.selectDue(Arrays.asList(A, B, C, D), 0, false).size());
+	}
+
+	@Test
+	public void testMostOverdueFirst() {
+		policy.update(B, true, false, 500);
+		policy.update(C, true, false, 1000);
+		policy.update(A, true, false, 0);
+		// D has never been fetched, so it is the most overdue.
+		List<File> all = Arrays.asList(A, B, C, D);
+		assertEquals(Arrays.asList(D, A, B, C), policy.selectDue(all, 5000, false));
+
+		policy.configure(1000, 100, 16000, 2);
+		assertEquals(Arrays.asList(D, A), policy.selectDue(all, 5000, false));
+	}
+
+	@Test
+	public void testNotDue() {
+		policy.update(A, true, false, 0);
+		policy.update(B, true, true, 0);
+		assertEquals(Collections.singletonList(B), policy.selectDue(Arrays.asList(A, B), 1000, false));
+		assertEquals(2, policy.selectDue(Arrays.asList(A, B), 1000, true).size());
+		assertEquals(500, policy.getNextDelay(0));
+		// The delay is never less than the minimum interval, even when overdue.
+		assertEquals(100, policy.getNextDelay(1000));
+	}
+
+	@Test
+	public void testSeed() {
+		policy.seed(A, 0);
+		assertTrue(policy.selectDue(Collections.singletonList(A), 500, false).isEmpty());
+		assertEquals(Collections.singletonList(A), policy.selectDue(Collections.singletonList(A), 1000, false));
+
+		// A repository fetched in this session is not seeded again.
+		policy.update(B, true, false, 0);
+		policy.seed(B, 0);
+		assertTrue(policy.selectDue(Collections.singletonList(B), 1000, false).isEmpty());
+	}
+
+	/**
+	 * Policy with no random jitter, so that the intervals are exact.
+	 */
+	protected static class NoJitterPolicy extends PollingPolicy {
+
+		@Override
+		protected long jitter(long delay) {
+			return delay;
+		}
+	}
+}
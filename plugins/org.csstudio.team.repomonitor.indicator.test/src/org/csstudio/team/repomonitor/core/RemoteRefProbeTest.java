@@ -0,0 +1,108 @@
+package org.csstudio.team.repomonitor.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the probe against a local bare repository acting as the remote.
+ *
+ * Commits are pushed to the remote from a separate working repository,
+ * and the probe is run on a clone of the remote.
+ */
+public class RemoteRefProbeTest {
+
+	private File root;
+
+	private File remoteDir;
+
+	private Git upstream;
+
+	private Git clone;
+
+	@Before
+	public void setUp() throws Exception {
+		root = File.createTempFile("repomonitor", "");
+		FileUtils.delete(root);
+		FileUtils.mkdirs(root);
+
+		remoteDir = new File(root, "remote.git");
+		Git.init().setBare(true).setDirectory(remoteDir).call().getRepository().close();
+
+		upstream = Git.init().setDirectory(new File(root, "upstream")).call();
+		push("Initial commit");
+
+		clone = Git.cloneRepository().setURI(getRemoteUri()).setDirectory(new File(root, "clone")).call();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if(upstream != null) {
+			upstream.getRepository().close();
+		}
+		if(clone != null) {
+			clone.getRepository().close();
+		}
+		FileUtils.delete(root, FileUtils.RECURSIVE | FileUtils.RETRY);
+	}
+
+	@Test
+	public void testUnchangedRemote() throws Exception {
+		RemoteRefProbe probe = new RemoteRefProbe(clone.getRepository(), "origin");
+		assertFalse(probe.hasChanges());
+	}
+
+	@Test
+	public void testPushToRemote() throws Exception {
+		RemoteRefProbe probe = new RemoteRefProbe(clone.getRepository(), "origin");
+		push("Second commit");
+		assertTrue(probe.hasChanges());
+
+		clone.fetch().setRemote("origin").call();
+		assertFalse(probe.hasChanges());
+	}
+
+	@Test
+	public void testNewBranchOnRemote() throws Exception {
+		RemoteRefProbe probe = new RemoteRefProbe(clone.getRepository(), "origin");
+		upstream.push().setRemote(getRemoteUri())
+				.setRefSpecs(new RefSpec("refs/heads/master:refs/heads/feature")).call();
+		assertTrue(probe.hasChanges());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		RemoteRefProbe probe = new RemoteRefProbe(clone.getRepository(), "origin");
+		probe.setTimeout(5);
+		push("Second commit");
+		assertTrue(probe.hasChanges());
+	}
+
+	/**
+	 * Commit to the upstream repository and push the commit to the remote.
+	 */
+	protected void push(String message) throws Exception {
+		Repository repository = upstream.getRepository();
+		File file = new File(repository.getWorkTree(), "file.txt");
+		Files.write(file.toPath(), message.getBytes("UTF-8"));
+		upstream.add().addFilepattern(file.getName()).call();
+		upstream.commit().setMessage(message).call();
+		upstream.push().setRemote(getRemoteUri())
+				.setRefSpecs(new RefSpec("refs/heads/master:refs/heads/master")).call();
+	}
+
+	protected String getRemoteUri() {
+		return remoteDir.toURI().toString();
+	}
+}
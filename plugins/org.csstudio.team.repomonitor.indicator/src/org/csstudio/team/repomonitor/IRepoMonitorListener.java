@@ -1,8 +1,12 @@
 package org.csstudio.team.repomonitor;
 
-import org.csstudio.team.repomonitor.RepoMonitorPlugin.RepoStatus;
+import org.csstudio.team.repomonitor.core.RepoStatus;
 
 public interface IRepoMonitorListener {
 
-	public void status(RepoStatus status, int commitsAhead, int commitsBehind);
+	/**
+	 * @param stale True if the status includes any repository whose status was
+	 *              restored from the previous session and not yet updated
+	 */
+	public void status(RepoStatus status, int commitsAhead, int commitsBehind, boolean stale);
 }
@@ -1,8 +1,9 @@
 package org.csstudio.team.repomonitor;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.Path;
@@ -12,6 +13,17 @@ import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import org.csstudio.team.repomonitor.core.IRepositoryStatusListener;
+import org.csstudio.team.repomonitor.core.ListenerDispatcher;
+import org.csstudio.team.repomonitor.core.CommitGraphCache;
+import org.csstudio.team.repomonitor.core.IncomingCommits;
+import org.csstudio.team.repomonitor.core.MonitorMetrics;
+import org.csstudio.team.repomonitor.core.MonitorSettings;
+import org.csstudio.team.repomonitor.core.RepoStatus;
+import org.csstudio.team.repomonitor.core.RepositoryMonitor;
+import org.csstudio.team.repomonitor.core.RepositoryStatus;
+import org.csstudio.team.repomonitor.core.RepositoryStatusStore;
+import org.csstudio.team.repomonitor.job.MetricsExportJob;
 import org.csstudio.team.repomonitor.job.RepoMonitorJob;
 
 
@@ -38,11 +50,13 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 	
 	public static final String REPO_BUSY_ICON = "icons/repo-busy.gif";
 	
-	public static final long DEFAULT_MONITOR_DELAY = 360000; // 1 hour
+	public static final long DEFAULT_MONITOR_DELAY = MonitorSettings.DEFAULT_MONITOR_DELAY;
 	
 	public static final long START_MONITOR_DELAY = 30000;    // 30 seconds
 	
-	public static enum RepoStatus { ERROR, BUSY, SYNC, AHEAD, BEHIND, DIVERGE }
+	public static final String REPOSITORY_STATUS_FILE = "repository.status";
+	
+	public static final String COMMIT_GRAPH_DIRECTORY = "commit-graph";
 	
 	
 	/**
@@ -61,11 +75,23 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 
 	private RepoStatus status = RepoStatus.ERROR;
 	
-	private long monitorDelay = DEFAULT_MONITOR_DELAY;
+	private volatile boolean stale = false;
+	
+	private MonitorSettings settings = new MonitorSettings();
+	
+	private RepositoryMonitor repositoryMonitor = new PluginRepositoryMonitor(settings);
+	
+	private long metricsExportInterval = 0;
 	
-	private RepoMonitorJob monitorJob = new RepoMonitorJob();  
+	private File metricsExportFile = null;
 	
-	private Set<IRepoMonitorListener> listeners = Collections.synchronizedSet(new HashSet<IRepoMonitorListener>()); 
+	private RepoMonitorJob monitorJob = new RepoMonitorJob(repositoryMonitor);  
+	
+	private MetricsExportJob metricsExportJob = new MetricsExportJob();
+	
+	private MonitorListenerDispatcher listeners = new MonitorListenerDispatcher(repositoryMonitor.getExecutor());
+	
+	private MonitorStatus lastMonitorStatus = null;
 	
 	/**
 	 * Activate the plugin.
@@ -85,12 +111,21 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 				FileLocator.find(context.getBundle(), new Path(REPO_DIVERGE_ICON), null)));	
 		getImageRegistry().put(REPO_BUSY_ICON, ImageDescriptor.createFromURL(
 				FileLocator.find(context.getBundle(), new Path(REPO_BUSY_ICON), null)));	
+		repositoryMonitor.setStatusStore(new RepositoryStatusStore(getStateLocation().append(REPOSITORY_STATUS_FILE).toFile()));
+		repositoryMonitor.setCommitGraphCache(new CommitGraphCache(getStateLocation().append(COMMIT_GRAPH_DIRECTORY).toFile()));
+		restoreRepositoryStatuses();
 	}
 
 	/**
 	 * Deactivate the plugin.
+	 * 
+	 * The monitor is stopped first, so that the workspace and EGit
+	 * listeners registered by the monitor do not outlive the plugin.
 	 */
 	public void stop(BundleContext context) throws Exception {
+		stopMonitor();
+		saveRepositoryStatuses();
+		repositoryMonitor.shutdown();
 		getImageRegistry().dispose();
 		plugin = null;
 		super.stop(context);
@@ -99,6 +134,10 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 	/**
 	 * Starts the repository monitor job.
 	 * 
+	 * Changes to the local refs of the monitored repositories are also
+	 * tracked, so that the status is refreshed immediately after a local
+	 * commit, without waiting for the next fetch.
+	 * 
 	 * A short delay is used on startup to allow the workbench to fully initialize before
 	 * any Git commands are executed.  If Git commands are executed too soon after
 	 * workbench startup, then the command may fail because the stored password
@@ -109,22 +148,37 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 			monitorJob.setShouldSchedule(true);
 			monitorJob.schedule(START_MONITOR_DELAY);
 		}
+		monitorJob.getProjectIndex().start();
+		monitorJob.getChangeMonitor().start();
+		if(metricsExportInterval > 0 && metricsExportJob.getState() == Job.NONE) {
+			metricsExportJob.setShouldSchedule(true);
+			metricsExportJob.schedule(metricsExportInterval);
+		}
 	}
 	
 	/**
 	 * Stop the repository monitor job.
 	 */
 	public void stopMonitor() {
+		monitorJob.getChangeMonitor().stop();
+		monitorJob.getProjectIndex().stop();
 		if(monitorJob.getState() != Job.NONE) {
 			monitorJob.setShouldSchedule(false);
 			monitorJob.cancel();
 		}
+		if(metricsExportJob.getState() != Job.NONE) {
+			metricsExportJob.setShouldSchedule(false);
+			metricsExportJob.cancel();
+		}
 	}
 	
 	/**
 	 * Run the repository monitor job to update status immediately.
+	 * 
+	 * All repositories are fetched, regardless of their polling interval.
 	 */
 	public void updateMonitor() {
+		monitorJob.setForceUpdate(true);
 		if(monitorJob.getState() == Job.SLEEPING) {
 			monitorJob.wakeUp();
 		} else if(monitorJob.getState() == Job.NONE) { 
@@ -141,16 +195,299 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 	}
 	
 	public long getMonitorDelay() {
-		return monitorDelay;
+		return settings.getMonitorDelay();
 	}
 
 	public void setMonitorDelay(long monitorDelay) {
-		this.monitorDelay = monitorDelay;
+		settings.setMonitorDelay(monitorDelay);
+	}
+
+	public long getMinMonitorDelay() {
+		return settings.getMinMonitorDelay();
+	}
+
+	/**
+	 * Set the shortest interval between fetches of a repository that changes frequently.
+	 */
+	public void setMinMonitorDelay(long minMonitorDelay) {
+		settings.setMinMonitorDelay(minMonitorDelay);
+	}
+
+	public long getMaxMonitorDelay() {
+		return settings.getMaxMonitorDelay();
+	}
+
+	/**
+	 * Set the longest interval between fetches of a repository that is quiet or failing.
+	 */
+	public void setMaxMonitorDelay(long maxMonitorDelay) {
+		settings.setMaxMonitorDelay(maxMonitorDelay);
+	}
+
+	public int getMaxCycleFetches() {
+		return settings.getMaxCycleFetches();
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched in one monitor cycle (zero for no limit).
+	 */
+	public void setMaxCycleFetches(int maxCycleFetches) {
+		settings.setMaxCycleFetches(maxCycleFetches);
+	}
+
+	public boolean isProbeRemote() {
+		return settings.isProbeRemote();
+	}
+
+	/**
+	 * Set if the remote refs should be listed before fetching, so that the
+	 * fetch can be skipped when the remote has not changed.
+	 * 
+	 * @param probeRemote True to list remote refs before fetching
+	 */
+	public void setProbeRemote(boolean probeRemote) {
+		settings.setProbeRemote(probeRemote);
+	}
+
+	public long getFetchTimeout() {
+		return settings.getFetchTimeout();
+	}
+
+	/**
+	 * Set the maximum time allowed for fetching a single repository.
+	 * 
+	 * @param fetchTimeout Timeout in milliseconds (zero for no limit)
+	 */
+	public void setFetchTimeout(long fetchTimeout) {
+		settings.setFetchTimeout(fetchTimeout);
+	}
+
+	public int getMaxConcurrentFetches() {
+		return settings.getMaxConcurrentFetches();
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched at the same time.
+	 */
+	public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+		settings.setMaxConcurrentFetches(maxConcurrentFetches);
+	}
+
+	public int getMaxHostFetches() {
+		return settings.getMaxHostFetches();
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched at the same time from the same remote host.
+	 */
+	public void setMaxHostFetches(int maxHostFetches) {
+		settings.setMaxHostFetches(maxHostFetches);
+	}
+
+	public boolean isMonitorAllBranches() {
+		return settings.isMonitorAllBranches();
+	}
+
+	/**
+	 * Set if every local branch with an upstream should be monitored,
+	 * instead of only the checked out branch.
+	 * 
+	 * @param monitorAllBranches True to monitor all tracked branches
+	 */
+	public void setMonitorAllBranches(boolean monitorAllBranches) {
+		settings.setMonitorAllBranches(monitorAllBranches);
+	}
+
+	public boolean isNarrowFetch() {
+		return settings.isNarrowFetch();
+	}
+
+	/**
+	 * Set if only the upstream refs of the monitored branches should be fetched,
+	 * instead of using the fetch ref specs configured for the remote.
+	 * 
+	 * @param narrowFetch True to fetch only the monitored refs
+	 */
+	public void setNarrowFetch(boolean narrowFetch) {
+		settings.setNarrowFetch(narrowFetch);
+	}
+
+	public boolean isFetchTags() {
+		return settings.isFetchTags();
+	}
+
+	/**
+	 * Set if tags should be automatically followed when fetching.
+	 * 
+	 * @param fetchTags False to fetch no tags
+	 */
+	public void setFetchTags(boolean fetchTags) {
+		settings.setFetchTags(fetchTags);
+	}
+
+	public long getCycleBudget() {
+		return settings.getCycleBudget();
+	}
+
+	/**
+	 * Set the maximum time allowed for a monitor cycle, the repositories
+	 * not fetched within the budget are deferred to the next cycle.
+	 * 
+	 * @param cycleBudget Budget in milliseconds (zero for no limit)
+	 */
+	public void setCycleBudget(long cycleBudget) {
+		settings.setCycleBudget(cycleBudget);
+	}
+
+	public long getFetchResultTtl() {
+		return settings.getFetchResultTtl();
+	}
+
+	/**
+	 * Set the time for which the result of a fetch is reused, so that
+	 * repeated refreshes do not fetch the same remote again.
+	 * 
+	 * @param fetchResultTtl Time in milliseconds (zero to not reuse results)
+	 */
+	public void setFetchResultTtl(long fetchResultTtl) {
+		settings.setFetchResultTtl(fetchResultTtl);
+	}
+
+	public boolean isOffline() {
+		return settings.isOffline();
+	}
+
+	/**
+	 * Set if the monitor should work offline, comparing the branches with
+	 * the existing remote tracking refs without fetching the remotes.
+	 * 
+	 * @param offline True to not fetch
+	 */
+	public void setOffline(boolean offline) {
+		settings.setOffline(offline);
+	}
+
+	public long getLocalRefreshDelay() {
+		return settings.getLocalRefreshDelay();
+	}
+
+	/**
+	 * Set the interval at which all repositories are compared with their
+	 * remote tracking refs, between the less frequent fetches.
+	 * 
+	 * @param localRefreshDelay Delay in milliseconds (zero to disable)
+	 */
+	public void setLocalRefreshDelay(long localRefreshDelay) {
+		settings.setLocalRefreshDelay(localRefreshDelay);
+	}
+
+	public boolean isCheckWorkingTree() {
+		return settings.isCheckWorkingTree();
+	}
+
+	/**
+	 * Set if the working trees are checked for modified and untracked files.
+	 * 
+	 * @param checkWorkingTree False to only compare the branches
+	 */
+	public void setCheckWorkingTree(boolean checkWorkingTree) {
+		settings.setCheckWorkingTree(checkWorkingTree);
+	}
+
+	public boolean isUseCommitGraph() {
+		return settings.isUseCommitGraph();
+	}
+
+	/**
+	 * Set if the commits ahead and behind are counted using the commit graph
+	 * index, which is stored in the plugin state location.
+	 * 
+	 * @param useCommitGraph False to parse the commits of each comparison
+	 */
+	public void setUseCommitGraph(boolean useCommitGraph) {
+		settings.setUseCommitGraph(useCommitGraph);
+	}
+
+	public long getMemoryBudget() {
+		return settings.getMemoryBudget();
+	}
+
+	/**
+	 * Set the memory allowed for the cached state of the repositories,
+	 * including the commit graph indexes.
+	 * 
+	 * @param memoryBudget Estimated number of bytes (zero for no limit)
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		settings.setMemoryBudget(memoryBudget);
+	}
+
+	public int getIncomingCommitLimit() {
+		return settings.getIncomingCommitLimit();
+	}
+
+	/**
+	 * Set the number of incoming commits shown in the indicator menu
+	 * for each repository that is behind its upstream.
+	 * 
+	 * @param incomingCommitLimit Maximum number of commits (zero to not show them)
+	 */
+	public void setIncomingCommitLimit(int incomingCommitLimit) {
+		settings.setIncomingCommitLimit(incomingCommitLimit);
+	}
+
+	public long getMetricsExportInterval() {
+		return metricsExportInterval;
+	}
+
+	/**
+	 * Set the interval at which the metrics are exported, this
+	 * takes effect the next time the monitor is started.
+	 * 
+	 * @param metricsExportInterval Interval in milliseconds (zero to disable)
+	 */
+	public void setMetricsExportInterval(long metricsExportInterval) {
+		this.metricsExportInterval = metricsExportInterval;
+	}
+
+	public File getMetricsExportFile() {
+		return metricsExportFile;
+	}
+
+	/**
+	 * Set the file to which the metrics are appended.
+	 * 
+	 * @param metricsExportFile The file, or null to export the metrics to the log
+	 */
+	public void setMetricsExportFile(File metricsExportFile) {
+		this.metricsExportFile = metricsExportFile;
+	}
+
+	/**
+	 * @return The monitoring engine, independent of the workbench
+	 */
+	public RepositoryMonitor getRepositoryMonitor() {
+		return repositoryMonitor;
+	}
+
+	/**
+	 * @return The timing and transfer statistics of the monitor
+	 */
+	public MonitorMetrics getMetrics() {
+		return repositoryMonitor.getMetrics();
 	}
 
 	public RepoStatus getStatus() {
 		return status;
 	}
+
+	/**
+	 * @return True if the overall status includes any repository whose status
+	 *         was restored from the previous session and not yet updated
+	 */
+	public boolean isStale() {
+		return stale;
+	}
 	
 	/**
 	 * Set the status of the repository based on the number of commits ahead and behind.
@@ -174,6 +511,106 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 		fireMonitorListeners();
 	}
 	
+	/**
+	 * Get the status of a single repository.
+	 * 
+	 * @param directory The repository directory
+	 * @return The repository status or null if the repository is not monitored
+	 */
+	public RepositoryStatus getRepositoryStatus(File directory) {
+		return repositoryMonitor.getRepositoryStatus(directory);
+	}
+	
+	/**
+	 * @return The status of all monitored repositories
+	 */
+	public Collection<RepositoryStatus> getRepositoryStatuses() {
+		return repositoryMonitor.getRepositoryStatuses();
+	}
+	
+	/**
+	 * Get the most recent incoming commits of a repository, if they have been found.
+	 * 
+	 * @param status The status of the repository
+	 * @return The incoming commits, or null if the repository is not behind or they
+	 *         are not found yet, in which case they are found in the background
+	 */
+	public IncomingCommits getIncomingCommits(RepositoryStatus status) {
+		return repositoryMonitor.getIncomingCommits(status);
+	}
+	
+	/**
+	 * Set the status of a single repository and update the overall status.
+	 * 
+	 * This is called as each repository is fetched, so that listeners
+	 * receive partial results without waiting for the complete cycle.
+	 * 
+	 * @param status The repository status
+	 */
+	public void setRepositoryStatus(RepositoryStatus status) {
+		repositoryMonitor.setRepositoryStatus(status);
+		updateStatus();
+	}
+	
+	/**
+	 * Restore the status of each repository saved in the previous session.
+	 * 
+	 * The restored statuses are marked as stale until the repositories are updated.
+	 */
+	protected void restoreRepositoryStatuses() {
+		List<RepositoryStatus> statuses = repositoryMonitor.restore();
+		if(!statuses.isEmpty()) {
+			updateStatus();
+		}
+	}
+	
+	/**
+	 * Save the status of each repository, so that it can be shown immediately in the next session.
+	 */
+	public void saveRepositoryStatuses() {
+		repositoryMonitor.save();
+	}
+	
+	/**
+	 * Discard the status of repositories that are no longer monitored.
+	 * 
+	 * @param directories The directories of the repositories still monitored
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		repositoryMonitor.retainRepositories(directories);
+	}
+	
+	/**
+	 * Update the overall status from the status of each repository.
+	 * 
+	 * The commits ahead and behind are summed over the repositories without
+	 * errors, and the overall status is only an error if every repository
+	 * has an error. Use {@link #getRepositoryStatuses()} to find the
+	 * repositories with errors.
+	 */
+	public synchronized void updateStatus() {
+		int commitsAhead = 0;
+		int commitsBehind = 0;
+		int errors = 0;
+		boolean anyStale = false;
+		Collection<RepositoryStatus> statuses = repositoryMonitor.getRepositoryStatuses();
+		for(RepositoryStatus status : statuses) {
+			if(status.isError()) {
+				errors++;
+			} else {
+				commitsAhead += status.getCommitsAhead();
+				commitsBehind += status.getCommitsBehind();
+				anyStale |= status.isStale();
+			}
+		}
+		stale = anyStale;
+		if(errors > 0 && errors == statuses.size()) {
+			setError();
+		} else {
+			setStatus(commitsAhead, commitsBehind);
+		}
+	}
+	
 	/**
 	 * Set the status of the repository to error.
 	 * 
@@ -196,27 +633,149 @@ public class RepoMonitorPlugin extends AbstractUIPlugin {
 	}
 	
 	
+	public long getListenerInterval() {
+		return listeners.getInterval();
+	}
+	
+	/**
+	 * Set the minimum time between deliveries of status changes to each listener.
+	 * 
+	 * Status changes that occur within the interval are coalesced, so that the
+	 * listener only receives the latest status. This applies to listeners added
+	 * after the interval is set.
+	 * 
+	 * @param listenerInterval Interval in milliseconds
+	 */
+	public void setListenerInterval(long listenerInterval) {
+		listeners.setInterval(listenerInterval);
+		repositoryMonitor.setListenerInterval(listenerInterval);
+	}
+	
+	/**
+	 * Add a listener for the overall status.
+	 * 
+	 * Listeners are notified asynchronously, and not on the UI thread.
+	 */
 	public void addMonitorListener(IRepoMonitorListener listener) {
-		if(listeners.add(listener)) {
-			fireMonitorListener(listener);
+		addMonitorListener(listener, listeners.getInterval());
+	}
+	
+	/**
+	 * Add a listener for the overall status.
+	 * 
+	 * @param listener The listener
+	 * @param interval Minimum time between notifications in milliseconds
+	 */
+	public void addMonitorListener(IRepoMonitorListener listener, long interval) {
+		if(listeners.addListener(listener, interval)) {
+			listeners.dispatch(listener, MonitorStatus.class, new MonitorStatus(status, commitsAhead, commitsBehind, stale));
 		}
 	}
 	
 	public void removeMonitorListener(IRepoMonitorListener listener) {
-		listeners.remove(listener);
+		listeners.removeListener(listener);
+	}
+	
+	/**
+	 * Add a listener for the status of each repository.
+	 * 
+	 * Listeners are notified asynchronously, and not on the UI thread.
+	 * The current status of each repository is sent to the new listener.
+	 */
+	public void addRepositoryListener(IRepositoryStatusListener listener) {
+		repositoryMonitor.addListener(listener);
+	}
+	
+	/**
+	 * Add a listener for the status of each repository.
+	 * 
+	 * @param listener The listener
+	 * @param interval Minimum time between notifications in milliseconds
+	 */
+	public void addRepositoryListener(IRepositoryStatusListener listener, long interval) {
+		repositoryMonitor.addListener(listener, interval);
+	}
+	
+	public void removeRepositoryListener(IRepositoryStatusListener listener) {
+		repositoryMonitor.removeListener(listener);
+	}
+	
+	/**
+	 * Notify the listeners of the overall status, unless it has not changed since the last notification.
+	 */
+	protected synchronized void fireMonitorListeners() {
+		MonitorStatus monitorStatus = new MonitorStatus(status, commitsAhead, commitsBehind, stale);
+		if(!monitorStatus.equals(lastMonitorStatus)) {
+			lastMonitorStatus = monitorStatus;
+			listeners.dispatch(MonitorStatus.class, monitorStatus);
+		}
 	}
 	
-	protected void fireMonitorListeners() {
-		for(IRepoMonitorListener listener : listeners) {
-			fireMonitorListener(listener);
+	/**
+	 * Immutable overall status delivered to the monitor listeners.
+	 */
+	protected static class MonitorStatus {
+		
+		private final RepoStatus status;
+		
+		private final int commitsAhead;
+		
+		private final int commitsBehind;
+		
+		private final boolean stale;
+		
+		public MonitorStatus(RepoStatus status, int commitsAhead, int commitsBehind, boolean stale) {
+			this.status = status;
+			this.commitsAhead = commitsAhead;
+			this.commitsBehind = commitsBehind;
+			this.stale = stale;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof MonitorStatus)) {
+				return false;
+			}
+			MonitorStatus other = (MonitorStatus) obj;
+			return status == other.status && commitsAhead == other.commitsAhead && commitsBehind == other.commitsBehind
+					&& stale == other.stale;
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((status.hashCode() * 31 + commitsAhead) * 31 + commitsBehind) * 31 + (stale ? 1 : 0);
 		}
 	}
 	
-	protected void fireMonitorListener(IRepoMonitorListener listener) {
-		try {
-			listener.status(status, commitsAhead, commitsBehind);
-		} catch(Exception e) {
+	protected class MonitorListenerDispatcher extends ListenerDispatcher<IRepoMonitorListener,MonitorStatus> {
+		
+		public MonitorListenerDispatcher(ScheduledExecutorService executor) {
+			super(executor, MonitorSettings.DEFAULT_LISTENER_INTERVAL);
+		}
+		
+		@Override
+		protected void deliver(IRepoMonitorListener listener, MonitorStatus event) {
+			listener.status(event.status, event.commitsAhead, event.commitsBehind, event.stale);
+		}
+		
+		@Override
+		protected void handleException(IRepoMonitorListener listener, Exception e) {
 			getLog().log(new Status(Status.WARNING, PLUGIN_ID, "Exception while executing repository monitor listener: " + listener.getClass().getSimpleName(), e));
 		}
 	}
+	
+	/**
+	 * Monitoring engine that logs to the plug-in log.
+	 */
+	protected class PluginRepositoryMonitor extends RepositoryMonitor {
+		
+		public PluginRepositoryMonitor(MonitorSettings settings) {
+			super(settings);
+		}
+		
+		@Override
+		protected void log(String message, Throwable e) {
+			getLog().log(new Status(Status.WARNING, PLUGIN_ID, message, e));
+		}
+	}
 }
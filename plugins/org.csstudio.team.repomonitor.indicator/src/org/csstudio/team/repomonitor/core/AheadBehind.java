@@ -0,0 +1,68 @@
+package org.csstudio.team.repomonitor.core;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Immutable result of comparing a local branch tip with its remote branch tip.
+ */
+public class AheadBehind {
+
+	private final ObjectId localId;
+
+	private final ObjectId remoteId;
+
+	private final int ahead;
+
+	private final int behind;
+
+	private final boolean mergeBase;
+
+	public AheadBehind(AnyObjectId localId, AnyObjectId remoteId, int ahead, int behind, boolean mergeBase) {
+		this.localId = localId.copy();
+		this.remoteId = remoteId.copy();
+		this.ahead = ahead;
+		this.behind = behind;
+		this.mergeBase = mergeBase;
+	}
+
+	/**
+	 * @return Commit at the tip of the local branch
+	 */
+	public ObjectId getLocalId() {
+		return localId;
+	}
+
+	/**
+	 * @return Commit at the tip of the remote branch
+	 */
+	public ObjectId getRemoteId() {
+		return remoteId;
+	}
+
+	/**
+	 * @return Number of commits reachable from the local tip but not the remote tip
+	 */
+	public int getAhead() {
+		return ahead;
+	}
+
+	/**
+	 * @return Number of commits reachable from the remote tip but not the local tip
+	 */
+	public int getBehind() {
+		return behind;
+	}
+
+	/**
+	 * @return True if the local and remote branches have a common ancestor
+	 */
+	public boolean hasMergeBase() {
+		return mergeBase;
+	}
+
+	@Override
+	public String toString() {
+		return "AheadBehind[" + localId.name() + ", " + remoteId.name() + ", ahead=" + ahead + ", behind=" + behind + "]";
+	}
+}
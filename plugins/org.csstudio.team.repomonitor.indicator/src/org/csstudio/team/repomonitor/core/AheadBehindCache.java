@@ -0,0 +1,158 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Cache of ahead and behind counts for each repository and branch.
+ *
+ * Results are keyed on the local and remote branch tips. If neither tip has
+ * moved the cached result is returned without walking any commits, and if
+ * only one tip has moved the cached result is extended by walking just the
+ * new commits (see {@link AheadBehindCounter#update(AheadBehind, AnyObjectId, AnyObjectId)}).
+ */
+public class AheadBehindCache implements IRepositoryCache {
+
+	/**
+	 * Estimated size of a cached result, including its key.
+	 */
+	private static final long ENTRY_SIZE = 256;
+
+	private Map<String,AheadBehind> results = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the ahead and behind counts for the given branch tips.
+	 *
+	 * @param repository The repository containing the branches
+	 * @param branch Name of the local branch
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @return The ahead and behind counts
+	 * @throws IOException If a commit can not be read from the repository
+	 */
+	public AheadBehind get(Repository repository, String branch, AnyObjectId localId, AnyObjectId remoteId) throws IOException {
+		AheadBehind cached = getCached(repository, branch, localId, remoteId);
+		if(cached != null) {
+			return cached;
+		}
+
+		AheadBehindCounter counter = new AheadBehindCounter(repository);
+		try {
+			return get(repository, branch, localId, remoteId, counter);
+		} finally {
+			counter.release();
+		}
+	}
+
+	/**
+	 * Get the ahead and behind counts for the given branch tips using an
+	 * existing counter, so that the parsed commits are shared when several
+	 * branches of the same repository are compared.
+	 *
+	 * @param repository The repository containing the branches
+	 * @param branch Name of the local branch
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @param counter Counter for the repository, which is not released
+	 * @return The ahead and behind counts
+	 * @throws IOException If a commit can not be read from the repository
+	 */
+	public AheadBehind get(Repository repository, String branch, AnyObjectId localId, AnyObjectId remoteId, AheadBehindCounter counter) throws IOException {
+		String key = getKey(repository, branch);
+		AheadBehind previous = results.get(key);
+		if(isMatch(previous, localId, remoteId)) {
+			return previous;
+		}
+
+		AheadBehind result = counter.update(previous, localId, remoteId);
+		results.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Get the cached ahead and behind counts, without walking any commits.
+	 *
+	 * @return The cached result, or null if the branch tips have changed
+	 */
+	public AheadBehind getCached(Repository repository, String branch, AnyObjectId localId, AnyObjectId remoteId) {
+		AheadBehind previous = results.get(getKey(repository, branch));
+		return isMatch(previous, localId, remoteId) ? previous : null;
+	}
+
+	/**
+	 * Add a result computed previously (ie restored from a previous session).
+	 *
+	 * @param directory The repository (.git) directory
+	 * @param branch Name of the local branch
+	 * @param result The ahead and behind counts
+	 */
+	public void put(File directory, String branch, AheadBehind result) {
+		results.put(getKey(directory, branch), result);
+	}
+
+	/**
+	 * Remove the cached results for the given repository.
+	 */
+	public void remove(Repository repository) {
+		evict(repository.getDirectory());
+	}
+
+	@Override
+	public long getMemoryUsage(File directory) {
+		String prefix = getKey(directory, "");
+		long usage = 0;
+		for(String key : results.keySet()) {
+			if(key.startsWith(prefix)) {
+				usage += ENTRY_SIZE;
+			}
+		}
+		return usage;
+	}
+
+	@Override
+	public void evict(File directory) {
+		String prefix = getKey(directory, "");
+		for(String key : results.keySet()) {
+			if(key.startsWith(prefix)) {
+				results.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		results.clear();
+	}
+
+	/**
+	 * Remove the cached results for the branches of the repository that are not in the given collection.
+	 */
+	public void retainBranches(Repository repository, Collection<String> branches) {
+		String prefix = getKey(repository, "");
+		for(String key : results.keySet()) {
+			if(key.startsWith(prefix) && !branches.contains(key.substring(prefix.length()))) {
+				results.remove(key);
+			}
+		}
+	}
+
+	protected boolean isMatch(AheadBehind result, AnyObjectId localId, AnyObjectId remoteId) {
+		return result != null && result.getLocalId().equals(localId) && result.getRemoteId().equals(remoteId);
+	}
+
+	protected String getKey(Repository repository, String branch) {
+		return getKey(repository.getDirectory(), branch);
+	}
+
+	protected String getKey(File directory, String branch) {
+		return directory.getAbsolutePath() + "#" + branch;
+	}
+}
@@ -0,0 +1,244 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Count the commits a local branch is ahead and behind its remote branch.
+ *
+ * The merge base(s) of the two tips are found first, then a single walk
+ * starting from both tips, with the merge bases marked uninteresting, paints
+ * each commit with the side(s) it is reachable from. The walk stops shortly
+ * after it passes the merge bases, so the cost is proportional to the
+ * divergence of the branches rather than the length of their history,
+ * and no reflog is required.
+ *
+ * A counter is not thread safe, but may be reused for any number of
+ * comparisons in the same repository. Call {@link #release()} when done.
+ *
+ * The walks check the progress monitor periodically, and stop with an
+ * {@link InterruptedIOException} if it has been canceled.
+ */
+public class AheadBehindCounter {
+
+	/**
+	 * Number of commits walked between checks for cancellation.
+	 */
+	private static final int CANCEL_CHECK_INTERVAL = 256;
+
+	private final RevWalk walk;
+
+	private final RevFlag localFlag;
+
+	private final RevFlag remoteFlag;
+
+	private ProgressMonitor monitor = NullProgressMonitor.INSTANCE;
+
+	private final boolean sharedReader;
+
+	public AheadBehindCounter(Repository repository) {
+		this(new RevWalk(repository), false);
+	}
+
+	/**
+	 * Create a counter that reads the commits with the given reader, so the
+	 * reader can be shared with other walks of the same update.
+	 *
+	 * @param reader Reader of the repository, which is not released by the counter
+	 */
+	public AheadBehindCounter(ObjectReader reader) {
+		this(new RevWalk(reader), true);
+	}
+
+	protected AheadBehindCounter(RevWalk walk, boolean sharedReader) {
+		this.walk = walk;
+		this.sharedReader = sharedReader;
+		walk.setRetainBody(false);
+		localFlag = walk.newFlag("LOCAL");
+		remoteFlag = walk.newFlag("REMOTE");
+		walk.carry(localFlag);
+		walk.carry(remoteFlag);
+	}
+
+	/**
+	 * Set the progress monitor checked for cancellation during the walks.
+	 */
+	public void setProgressMonitor(ProgressMonitor monitor) {
+		this.monitor = (monitor != null) ? monitor : NullProgressMonitor.INSTANCE;
+	}
+
+	/**
+	 * Count the commits ahead and behind.
+	 *
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @return The ahead and behind counts
+	 * @throws IOException If a commit can not be read from the repository
+	 */
+	public AheadBehind count(AnyObjectId localId, AnyObjectId remoteId) throws IOException {
+		if(localId.equals(remoteId)) {
+			return new AheadBehind(localId, remoteId, 0, 0, true);
+		}
+
+		walk.reset();
+		RevCommit local = walk.parseCommit(localId);
+		RevCommit remote = walk.parseCommit(remoteId);
+
+		walk.setRevFilter(RevFilter.MERGE_BASE);
+		walk.markStart(local);
+		walk.markStart(remote);
+		List<RevCommit> mergeBases = new ArrayList<>();
+		checkCanceled(0);
+		for(RevCommit base = walk.next(); base != null; base = walk.next()) {
+			mergeBases.add(base);
+		}
+
+		walk.reset();
+		walk.setRevFilter(RevFilter.ALL);
+		local.add(localFlag);
+		remote.add(remoteFlag);
+		walk.markStart(local);
+		walk.markStart(remote);
+		for(RevCommit base : mergeBases) {
+			walk.markUninteresting(base);
+		}
+
+		// Flags may still be carried to a commit after it has been
+		// produced by the walk (ie clock skew), so count at the end.
+		List<RevCommit> commits = new ArrayList<>();
+		for(RevCommit commit = walk.next(); commit != null; commit = walk.next()) {
+			commits.add(commit);
+			checkCanceled(commits.size());
+		}
+
+		int ahead = 0;
+		int behind = 0;
+		for(RevCommit commit : commits) {
+			boolean fromLocal = commit.has(localFlag);
+			boolean fromRemote = commit.has(remoteFlag);
+			if(fromLocal && !fromRemote) {
+				ahead++;
+			} else if(fromRemote && !fromLocal) {
+				behind++;
+			}
+		}
+
+		return new AheadBehind(localId, remoteId, ahead, behind, !mergeBases.isEmpty());
+	}
+
+	/**
+	 * Update a previous result for new branch tips.
+	 *
+	 * If only one of the tips has changed, and it has moved forward from the
+	 * previous tip, then only the new commits are walked and the previous
+	 * counts are adjusted. Otherwise the counts are computed from scratch.
+	 *
+	 * @param previous Previous result for the branches (may be null)
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @return The ahead and behind counts
+	 * @throws IOException If a commit can not be read from the repository
+	 */
+	public AheadBehind update(AheadBehind previous, AnyObjectId localId, AnyObjectId remoteId) throws IOException {
+		if(previous == null || !previous.hasMergeBase()) {
+			return count(localId, remoteId);
+		}
+
+		boolean localMoved = !previous.getLocalId().equals(localId);
+		boolean remoteMoved = !previous.getRemoteId().equals(remoteId);
+
+		if(!localMoved && !remoteMoved) {
+			return previous;
+		}
+
+		if(localMoved && !remoteMoved && isAncestor(previous.getLocalId(), localId)) {
+			// New local commits are either ahead of the remote, or were
+			// previously behind and have now been merged into the local branch.
+			int added = countNew(localId, previous.getLocalId(), null);
+			int ahead = countNew(localId, previous.getLocalId(), remoteId);
+			int behind = previous.getBehind() - (added - ahead);
+			if(behind >= 0) {
+				return new AheadBehind(localId, remoteId, previous.getAhead() + ahead, behind, true);
+			}
+		} else if(remoteMoved && !localMoved && isAncestor(previous.getRemoteId(), remoteId)) {
+			int added = countNew(remoteId, previous.getRemoteId(), null);
+			int behind = countNew(remoteId, previous.getRemoteId(), localId);
+			int ahead = previous.getAhead() - (added - behind);
+			if(ahead >= 0) {
+				return new AheadBehind(localId, remoteId, ahead, previous.getBehind() + behind, true);
+			}
+		}
+
+		return count(localId, remoteId);
+	}
+
+	/**
+	 * Check if a commit is an ancestor of (or the same as) another commit.
+	 */
+	protected boolean isAncestor(AnyObjectId ancestorId, AnyObjectId commitId) throws IOException {
+		walk.reset();
+		RevCommit ancestor = walk.parseCommit(ancestorId);
+		RevCommit commit = walk.parseCommit(commitId);
+		walk.setRevFilter(RevFilter.MERGE_BASE);
+		walk.markStart(ancestor);
+		walk.markStart(commit);
+		checkCanceled(0);
+		for(RevCommit base = walk.next(); base != null; base = walk.next()) {
+			if(base.equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Count the commits reachable from the start commit but not from the excluded commits.
+	 */
+	protected int countNew(AnyObjectId startId, AnyObjectId excludeId, AnyObjectId otherExcludeId) throws IOException {
+		walk.reset();
+		walk.setRevFilter(RevFilter.ALL);
+		walk.markStart(walk.parseCommit(startId));
+		walk.markUninteresting(walk.parseCommit(excludeId));
+		if(otherExcludeId != null) {
+			walk.markUninteresting(walk.parseCommit(otherExcludeId));
+		}
+		int count = 0;
+		while(walk.next() != null) {
+			count++;
+			checkCanceled(count);
+		}
+		return count;
+	}
+
+	/**
+	 * Stop the walk if the progress monitor has been canceled,
+	 * checked only once every few commits.
+	 */
+	protected void checkCanceled(int walked) throws InterruptedIOException {
+		if(walked % CANCEL_CHECK_INTERVAL == 0 && monitor.isCancelled()) {
+			throw new InterruptedIOException("Counting of commits canceled");
+		}
+	}
+
+	/**
+	 * Release the resources held by the underlying walk,
+	 * unless the reader is shared.
+	 */
+	public void release() {
+		if(!sharedReader) {
+			walk.release();
+		}
+	}
+}
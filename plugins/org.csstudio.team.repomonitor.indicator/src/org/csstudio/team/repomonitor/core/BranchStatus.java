@@ -0,0 +1,76 @@
+package org.csstudio.team.repomonitor.core;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Immutable snapshot of the status of a single local branch and its upstream.
+ */
+public class BranchStatus {
+
+	private final String branch;
+
+	private final String upstream;
+
+	private final int commitsAhead;
+
+	private final int commitsBehind;
+
+	private final boolean mergeBase;
+
+	private final ObjectId localId;
+
+	private final ObjectId remoteId;
+
+	/**
+	 * @param branch Short name of the local branch
+	 * @param upstream Name of the remote tracking ref of the upstream
+	 * @param commitsAhead Number of commits local branch is ahead
+	 * @param commitsBehind Number of commits local branch is behind
+	 * @param mergeBase False if the branches have no common ancestor
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote tracking ref
+	 */
+	public BranchStatus(String branch, String upstream, int commitsAhead, int commitsBehind, boolean mergeBase, AnyObjectId localId, AnyObjectId remoteId) {
+		this.branch = branch;
+		this.upstream = upstream;
+		this.commitsAhead = commitsAhead;
+		this.commitsBehind = commitsBehind;
+		this.mergeBase = mergeBase;
+		this.localId = localId.copy();
+		this.remoteId = remoteId.copy();
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public String getUpstream() {
+		return upstream;
+	}
+
+	public int getCommitsAhead() {
+		return commitsAhead;
+	}
+
+	public int getCommitsBehind() {
+		return commitsBehind;
+	}
+
+	public boolean hasMergeBase() {
+		return mergeBase;
+	}
+
+	public ObjectId getLocalId() {
+		return localId;
+	}
+
+	public ObjectId getRemoteId() {
+		return remoteId;
+	}
+
+	@Override
+	public String toString() {
+		return "BranchStatus[" + branch + ", " + upstream + ", ahead=" + commitsAhead + ", behind=" + commitsBehind + "]";
+	}
+}
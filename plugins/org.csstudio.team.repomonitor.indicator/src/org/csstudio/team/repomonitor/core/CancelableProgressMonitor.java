@@ -0,0 +1,65 @@
+package org.csstudio.team.repomonitor.core;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Progress monitor that is canceled when its delegate is canceled,
+ * when {@link #cancel()} is called, or when its deadline has passed.
+ *
+ * JGit checks the progress monitor while fetching, so this is used to
+ * stop a fetch, and the counting of commits, within the cycle time budget.
+ */
+public class CancelableProgressMonitor implements ProgressMonitor {
+
+	private final ProgressMonitor delegate;
+
+	private final long deadline;
+
+	private volatile boolean canceled = false;
+
+	/**
+	 * @param delegate The progress monitor to report to
+	 * @param deadline Time from {@link System#nanoTime()} after which the
+	 *                 monitor is canceled (zero for no deadline)
+	 */
+	public CancelableProgressMonitor(ProgressMonitor delegate, long deadline) {
+		this.delegate = delegate;
+		this.deadline = deadline;
+	}
+
+	public void cancel() {
+		canceled = true;
+	}
+
+	/**
+	 * @return True if the deadline has passed
+	 */
+	public boolean isExpired() {
+		return deadline != 0 && System.nanoTime() - deadline >= 0;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return canceled || isExpired() || delegate.isCancelled();
+	}
+
+	@Override
+	public void start(int totalTasks) {
+		delegate.start(totalTasks);
+	}
+
+	@Override
+	public void beginTask(String title, int totalWork) {
+		delegate.beginTask(title, totalWork);
+	}
+
+	@Override
+	public void update(int completed) {
+		delegate.update(completed);
+	}
+
+	@Override
+	public void endTask() {
+		delegate.endTask();
+	}
+}
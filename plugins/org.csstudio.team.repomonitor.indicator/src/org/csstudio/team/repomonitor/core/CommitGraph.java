@@ -0,0 +1,616 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Index of the commit graph of a repository, used to count the commits
+ * ahead and behind without parsing commits from the object database.
+ *
+ * Each indexed commit has a position, and its id, generation number and
+ * parent positions are kept in primitive int arrays. The generation of a
+ * root commit is one, and the generation of any other commit is one more
+ * than the greatest generation of its parents. Commits are added when they
+ * are first seen as a branch tip, together with any ancestors that are not
+ * yet indexed, so after the first update only new commits (ie from a fetch)
+ * are parsed.
+ *
+ * The index is written to a file and read back into memory as a whole,
+ * the file is not memory mapped since a mapped file can not be replaced
+ * on Windows until the mapping is garbage collected. The file is checked
+ * when read, so a corrupt file is rebuilt rather than giving wrong counts.
+ * Positions are also kept sorted by commit id, so an id is found with a
+ * binary search rather than a map of objects.
+ *
+ * All methods are synchronized, so the same index may be used by
+ * concurrent updates of the repository.
+ */
+public class CommitGraph {
+
+	private static final int MAGIC = 0x52434749; // 'RCGI'
+
+	private static final int VERSION = 1;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int ID_WORDS = 5;
+
+	/**
+	 * Number of commits added since the sorted index was built, above which it is built again.
+	 */
+	private static final int MAX_UNSORTED = 4096;
+
+	private static final int CANCEL_CHECK_INTERVAL = 256;
+
+	/**
+	 * Estimated size of a commit in the map of unsorted commits.
+	 */
+	private static final long UNSORTED_ENTRY_SIZE = 96;
+
+	private static final byte LOCAL = 1;
+
+	private static final byte REMOTE = 2;
+
+	private static final byte BOTH = LOCAL | REMOTE;
+
+	private static final byte QUEUED = 4;
+
+	private int count = 0;
+
+	private int[] ids = new int[0];
+
+	private int[] generations = new int[0];
+
+	/**
+	 * Parents of the commit at position p are parents[parentStarts[p]] to parents[parentStarts[p + 1] - 1].
+	 */
+	private int[] parentStarts = new int[] { 0 };
+
+	private int parentCount = 0;
+
+	private int[] parents = new int[0];
+
+	/**
+	 * First word of each id in the upper half and position in the lower half, sorted.
+	 */
+	private long[] sorted = new long[0];
+
+	private Map<ObjectId,Integer> unsorted = new HashMap<>();
+
+	private byte[] flags = new byte[0];
+
+	private final int[] words = new int[ID_WORDS];
+
+	private boolean modified = false;
+
+	/**
+	 * @return Number of indexed commits
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Get an estimate of the memory used by the index, which may be
+	 * called while the index is being updated.
+	 *
+	 * @return Estimated number of bytes
+	 */
+	public long getMemoryUsage() {
+		return 4L * (ids.length + generations.length + parentStarts.length + parents.length)
+				+ 8L * sorted.length + flags.length + UNSORTED_ENTRY_SIZE * unsorted.size();
+	}
+
+	/**
+	 * @return True if commits have been added since the index was last read or written
+	 */
+	public synchronized boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Add the given commits and their ancestors that are not yet indexed.
+	 *
+	 * @param repository The repository containing the commits
+	 * @param progress Progress monitor, checked for cancellation
+	 * @param tips The commits to add
+	 * @return Number of commits added
+	 * @throws IOException If a commit can not be read, or an
+	 *                     InterruptedIOException if the update was canceled
+	 */
+	public int update(Repository repository, ProgressMonitor progress, AnyObjectId... tips) throws IOException {
+		ObjectReader reader = repository.newObjectReader();
+		try {
+			return update(reader, progress, tips);
+		} finally {
+			reader.release();
+		}
+	}
+
+	/**
+	 * Add the given commits and their ancestors that are not yet indexed.
+	 *
+	 * @param reader Reader of the repository containing the commits, which is not released
+	 * @param progress Progress monitor, checked for cancellation
+	 * @param tips The commits to add
+	 * @return Number of commits added
+	 * @throws IOException If a commit can not be read, or an
+	 *                     InterruptedIOException if the update was canceled
+	 */
+	public int update(ObjectReader reader, ProgressMonitor progress, AnyObjectId... tips) throws IOException {
+		return update(reader, progress, 0, tips);
+	}
+
+	/**
+	 * Add the given commits and their ancestors that are not yet indexed,
+	 * unless more than the given number of commits must be parsed.
+	 *
+	 * The index is consistent if the update stops at the limit, as commits
+	 * are only added after their parents, and a later update continues it.
+	 *
+	 * @param reader Reader of the repository containing the commits, which is not released
+	 * @param progress Progress monitor, checked for cancellation
+	 * @param limit Maximum number of commits to parse (zero for no limit)
+	 * @param tips The commits to add
+	 * @return Number of commits added, or -1 if the limit was reached
+	 * @throws IOException If a commit can not be read, or an
+	 *                     InterruptedIOException if the update was canceled
+	 */
+	public synchronized int update(ObjectReader reader, ProgressMonitor progress, int limit, AnyObjectId... tips) throws IOException {
+		int added = 0;
+		int parsed = 0;
+		RevWalk walk = new RevWalk(reader);
+		walk.setRetainBody(false);
+		try {
+			Deque<RevCommit> stack = new ArrayDeque<>();
+			for(AnyObjectId tip : tips) {
+				if(lookup(tip) < 0) {
+					stack.push(walk.parseCommit(tip));
+					parsed++;
+				}
+			}
+			// Commits are added after all of their parents, so the generation is known.
+			while(!stack.isEmpty()) {
+				RevCommit commit = stack.peek();
+				if(lookup(commit) >= 0) {
+					stack.pop();
+					continue;
+				}
+				boolean ready = true;
+				for(RevCommit parent : commit.getParents()) {
+					if(lookup(parent) < 0) {
+						if(limit > 0 && ++parsed > limit) {
+							return -1;
+						}
+						walk.parseHeaders(parent);
+						stack.push(parent);
+						ready = false;
+					}
+				}
+				if(ready) {
+					stack.pop();
+					add(commit);
+					added++;
+					if(added % CANCEL_CHECK_INTERVAL == 0 && progress.isCancelled()) {
+						throw new InterruptedIOException("Update of commit graph canceled");
+					}
+				}
+			}
+		} finally {
+			if(unsorted.size() > MAX_UNSORTED) {
+				sort();
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Count the commits ahead and behind using only the index.
+	 *
+	 * Starting from both tips, commits are visited in order of decreasing
+	 * generation and painted with the side(s) they are reachable from, so a
+	 * commit is only counted once all of its descendants have been painted.
+	 * The walk stops as soon as every queued commit is reachable from both
+	 * sides, since all of their ancestors are as well.
+	 *
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @param progress Progress monitor, checked for cancellation
+	 * @return The ahead and behind counts, or null if either tip is not indexed
+	 * @throws InterruptedIOException If the count was canceled
+	 */
+	public synchronized AheadBehind count(AnyObjectId localId, AnyObjectId remoteId, ProgressMonitor progress) throws InterruptedIOException {
+		int local = lookup(localId);
+		int remote = lookup(remoteId);
+		if(local < 0 || remote < 0) {
+			return null;
+		}
+		if(local == remote) {
+			return new AheadBehind(localId, remoteId, 0, 0, true);
+		}
+		if(flags.length < count) {
+			flags = new byte[Math.max(count, flags.length * 2)];
+		}
+
+		GenerationQueue queue = new GenerationQueue();
+		IntList visited = new IntList();
+		flags[local] = LOCAL | QUEUED;
+		flags[remote] = REMOTE | QUEUED;
+		queue.add(local);
+		queue.add(remote);
+		visited.add(local);
+		visited.add(remote);
+
+		int pending = 2;
+		int walked = 0;
+		int ahead = 0;
+		int behind = 0;
+		boolean mergeBase = false;
+		try {
+			while(pending > 0 && !queue.isEmpty()) {
+				int position = queue.remove();
+				int paint = flags[position] & BOTH;
+				if(paint == LOCAL) {
+					ahead++;
+					pending--;
+				} else if(paint == REMOTE) {
+					behind++;
+					pending--;
+				} else {
+					mergeBase = true;
+				}
+				for(int i = parentStarts[position]; i < parentStarts[position + 1]; i++) {
+					int parent = parents[i];
+					int previous = flags[parent];
+					int next = previous | paint;
+					if(next == previous) {
+						continue;
+					}
+					if((previous & QUEUED) == 0) {
+						next |= QUEUED;
+						queue.add(parent);
+						visited.add(parent);
+						if((next & BOTH) != BOTH) {
+							pending++;
+						}
+					} else if((previous & BOTH) != BOTH && (next & BOTH) == BOTH) {
+						pending--;
+					}
+					flags[parent] = (byte) next;
+				}
+				if(++walked % CANCEL_CHECK_INTERVAL == 0 && progress.isCancelled()) {
+					throw new InterruptedIOException("Counting of commits canceled");
+				}
+			}
+			// Commits left in the queue are all reachable from both tips.
+			mergeBase |= !queue.isEmpty();
+		} finally {
+			for(int i = 0; i < visited.size(); i++) {
+				flags[visited.get(i)] = 0;
+			}
+		}
+		return new AheadBehind(localId, remoteId, ahead, behind, mergeBase);
+	}
+
+	/**
+	 * Count the commits ahead and behind using only the index.
+	 *
+	 * @see #count(AnyObjectId, AnyObjectId, ProgressMonitor)
+	 */
+	public AheadBehind count(AnyObjectId localId, AnyObjectId remoteId) throws InterruptedIOException {
+		return count(localId, remoteId, NullProgressMonitor.INSTANCE);
+	}
+
+	/**
+	 * Get the generation number of an indexed commit.
+	 *
+	 * @return The generation, or zero if the commit is not indexed
+	 */
+	public synchronized int getGeneration(AnyObjectId id) {
+		int position = lookup(id);
+		return (position >= 0) ? generations[position] : 0;
+	}
+
+	/**
+	 * Get the position of a commit in the index.
+	 *
+	 * @return The position, or -1 if the commit is not indexed
+	 */
+	protected int lookup(AnyObjectId id) {
+		Integer position = unsorted.get(id);
+		if(position != null) {
+			return position;
+		}
+		id.copyRawTo(words, 0);
+		long key = (long) words[0] << 32;
+		int low = 0;
+		int high = sorted.length;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(sorted[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for(int i = low; i < sorted.length && (int) (sorted[i] >> 32) == words[0]; i++) {
+			if(isId((int) sorted[i], words)) {
+				return (int) sorted[i];
+			}
+		}
+		return -1;
+	}
+
+	protected boolean isId(int position, int[] id) {
+		int offset = position * ID_WORDS;
+		for(int i = 0; i < ID_WORDS; i++) {
+			if(ids[offset + i] != id[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	protected void add(RevCommit commit) {
+		int position = count;
+		if(position == generations.length) {
+			int capacity = Math.max(1024, generations.length * 2);
+			ids = Arrays.copyOf(ids, capacity * ID_WORDS);
+			generations = Arrays.copyOf(generations, capacity);
+			parentStarts = Arrays.copyOf(parentStarts, capacity + 1);
+		}
+		commit.copyRawTo(ids, position * ID_WORDS);
+
+		int generation = 1;
+		for(RevCommit parent : commit.getParents()) {
+			int parentPosition = lookup(parent);
+			if(parentCount == parents.length) {
+				parents = Arrays.copyOf(parents, Math.max(1024, parents.length * 2));
+			}
+			parents[parentCount++] = parentPosition;
+			generation = Math.max(generation, generations[parentPosition] + 1);
+		}
+		generations[position] = generation;
+		parentStarts[position + 1] = parentCount;
+		count++;
+		unsorted.put(commit.copy(), position);
+		modified = true;
+	}
+
+	/**
+	 * Build the sorted index of all commits.
+	 */
+	protected void sort() {
+		sorted = new long[count];
+		for(int i = 0; i < count; i++) {
+			sorted[i] = (long) ids[i * ID_WORDS] << 32 | i;
+		}
+		Arrays.sort(sorted);
+		unsorted.clear();
+	}
+
+	/**
+	 * Replace the index with the contents of the given file.
+	 *
+	 * @throws IOException If the file can not be read or is not valid
+	 */
+	public synchronized void read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Unsupported commit graph file: " + file);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while(buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// Read until the end of the file. //
+			}
+			buffer.flip();
+			if(buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException("Unsupported commit graph file: " + file);
+			}
+			int size = buffer.getInt();
+			int sizeOfParents = buffer.getInt();
+			long expected = 16 + 4L * ((long) size * ID_WORDS + size + (size + 1) + sizeOfParents) + 8L * size;
+			if(size < 0 || sizeOfParents < 0 || buffer.limit() != expected) {
+				throw new IOException("Truncated commit graph file: " + file);
+			}
+			int[] newIds = new int[size * ID_WORDS];
+			int[] newGenerations = new int[size];
+			int[] newParentStarts = new int[size + 1];
+			int[] newParents = new int[sizeOfParents];
+			long[] newSorted = new long[size];
+			buffer.asIntBuffer().get(newIds).get(newGenerations).get(newParentStarts).get(newParents);
+			buffer.position(buffer.position() + 4 * (newIds.length + size + size + 1 + sizeOfParents));
+			buffer.asLongBuffer().get(newSorted);
+			verify(file, newIds, newGenerations, newParentStarts, newParents, newSorted);
+
+			count = size;
+			ids = newIds;
+			generations = newGenerations;
+			parentStarts = newParentStarts;
+			parentCount = sizeOfParents;
+			parents = newParents;
+			sorted = newSorted;
+			unsorted.clear();
+			modified = false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check that the parents of every commit are earlier in the index,
+	 * with a lower generation, and that the positions sorted by id are
+	 * all valid, so a corrupt file is not used to count commits.
+	 *
+	 * @throws IOException If the index read from the file is not valid
+	 */
+	protected static void verify(File file, int[] ids, int[] generations, int[] parentStarts, int[] parents, long[] sorted) throws IOException {
+		int size = generations.length;
+		if(parentStarts[0] != 0 || parentStarts[size] != parents.length) {
+			throw new IOException("Corrupt commit graph file: " + file);
+		}
+		for(int position = 0; position < size; position++) {
+			int start = parentStarts[position];
+			int end = parentStarts[position + 1];
+			if(end < start || generations[position] < 1) {
+				throw new IOException("Corrupt commit graph file: " + file);
+			}
+			for(int idx = start; idx < end; idx++) {
+				int parent = parents[idx];
+				if(parent < 0 || parent >= position || generations[parent] >= generations[position]) {
+					throw new IOException("Corrupt commit graph file: " + file);
+				}
+			}
+		}
+		for(int idx = 0; idx < size; idx++) {
+			int position = (int) sorted[idx];
+			if(position < 0 || position >= size || (int) (sorted[idx] >> 32) != ids[position * ID_WORDS]
+					|| (idx > 0 && sorted[idx] <= sorted[idx - 1])) {
+				throw new IOException("Corrupt commit graph file: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Write the index to the given file.
+	 *
+	 * @throws IOException If the file can not be written
+	 */
+	public synchronized void write(File file) throws IOException {
+		if(!unsorted.isEmpty()) {
+			sort();
+		}
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(count);
+			out.writeInt(parentCount);
+			for(int i = 0; i < count * ID_WORDS; i++) {
+				out.writeInt(ids[i]);
+			}
+			for(int i = 0; i < count; i++) {
+				out.writeInt(generations[i]);
+			}
+			for(int i = 0; i <= count; i++) {
+				out.writeInt(parentStarts[i]);
+			}
+			for(int i = 0; i < parentCount; i++) {
+				out.writeInt(parents[i]);
+			}
+			for(int i = 0; i < count; i++) {
+				out.writeLong(sorted[i]);
+			}
+		} finally {
+			out.close();
+		}
+		if(!temp.renameTo(file)) {
+			// Rename does not replace an existing file on all platforms.
+			if(!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Unable to replace commit graph file: " + file);
+			}
+		}
+		modified = false;
+	}
+
+	/**
+	 * Queue of commit positions, highest generation first.
+	 */
+	protected class GenerationQueue {
+
+		private int[] heap = new int[64];
+
+		private int size = 0;
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public void add(int position) {
+			if(size == heap.length) {
+				heap = Arrays.copyOf(heap, size * 2);
+			}
+			int i = size++;
+			while(i > 0) {
+				int parent = (i - 1) / 2;
+				if(generations[heap[parent]] >= generations[position]) {
+					break;
+				}
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = position;
+		}
+
+		public int remove() {
+			int first = heap[0];
+			int last = heap[--size];
+			int i = 0;
+			while(true) {
+				int child = 2 * i + 1;
+				if(child >= size) {
+					break;
+				}
+				if(child + 1 < size && generations[heap[child + 1]] > generations[heap[child]]) {
+					child++;
+				}
+				if(generations[heap[child]] <= generations[last]) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = last;
+			return first;
+		}
+	}
+
+	/**
+	 * Growable list of commit positions.
+	 */
+	protected static class IntList {
+
+		private int[] values = new int[64];
+
+		private int size = 0;
+
+		public void add(int value) {
+			if(size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		public int get(int index) {
+			return values[index];
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * The commit graph index of each monitored repository.
+ *
+ * An index is read from its file when the repository is first used, and
+ * is written back when it has changed, so the whole history is only parsed
+ * once. The file of a repository is named from a hash of its directory.
+ *
+ * Only the indexes that can be read again from their files are charged
+ * to the memory budget and evicted, an index that is not stored would
+ * have to be rebuilt from the whole history, so it is always kept.
+ */
+public class CommitGraphCache implements IRepositoryCache {
+
+	private static final String GRAPH_SUFFIX = ".graph";
+
+	private final File directory;
+
+	private Map<File,CommitGraph> graphs = new ConcurrentHashMap<>();
+
+	/**
+	 * @param directory The directory in which the indexes are stored, or null to not store them
+	 */
+	public CommitGraphCache(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the index of the repository, reading it from its file if needed.
+	 *
+	 * If the file can not be read, then an empty index is returned, which
+	 * is rebuilt as the repository is updated and replaces the file when saved.
+	 */
+	public synchronized CommitGraph get(Repository repository) {
+		CommitGraph graph = graphs.get(repository.getDirectory());
+		if(graph == null) {
+			graph = new CommitGraph();
+			File file = getFile(repository.getDirectory());
+			if(file != null && file.isFile()) {
+				try {
+					graph.read(file);
+				} catch(IOException e) {
+					graph = new CommitGraph();
+				}
+			}
+			graphs.put(repository.getDirectory(), graph);
+		}
+		return graph;
+	}
+
+	/**
+	 * Write the indexes that have changed since they were read.
+	 *
+	 * @throws IOException If any index can not be written
+	 */
+	public void save() throws IOException {
+		if(directory == null) {
+			return;
+		}
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create commit graph directory: " + directory);
+		}
+		IOException failure = null;
+		for(Map.Entry<File,CommitGraph> entry : graphs.entrySet()) {
+			if(entry.getValue().isModified()) {
+				try {
+					entry.getValue().write(getFile(entry.getKey()));
+				} catch(IOException e) {
+					failure = e;
+				}
+			}
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Discard the indexes of the repositories that are not in the given collection.
+	 * The files are kept, in case the repositories are monitored again.
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		graphs.keySet().retainAll(directories);
+	}
+
+	/**
+	 * @return The memory of the index, or zero if the indexes are not stored
+	 */
+	@Override
+	public long getMemoryUsage(File repositoryDirectory) {
+		CommitGraph graph = graphs.get(repositoryDirectory);
+		return (graph != null && directory != null) ? graph.getMemoryUsage() : 0;
+	}
+
+	/**
+	 * Discard the index of the repository, which is first written
+	 * if it has changed, so that it is read again when next used.
+	 * The index is kept if the indexes are not stored, or if it
+	 * can not be written.
+	 */
+	@Override
+	public synchronized void evict(File repositoryDirectory) {
+		CommitGraph graph = graphs.get(repositoryDirectory);
+		File file = getFile(repositoryDirectory);
+		if(graph == null || file == null) {
+			return;
+		}
+		if(graph.isModified()) {
+			try {
+				if(!directory.isDirectory() && !directory.mkdirs()) {
+					return;
+				}
+				graph.write(file);
+			} catch(IOException e) {
+				return;
+			}
+		}
+		graphs.remove(repositoryDirectory);
+	}
+
+	/**
+	 * Get the file of the index of the given repository.
+	 *
+	 * @return The file or null if the indexes are not stored
+	 */
+	protected File getFile(File repositoryDirectory) {
+		if(directory == null) {
+			return null;
+		}
+		byte[] digest = Constants.newMessageDigest().digest(Constants.encode(repositoryDirectory.getAbsolutePath()));
+		return new File(directory, ObjectId.fromRaw(digest).name() + GRAPH_SUFFIX);
+	}
+}
@@ -0,0 +1,52 @@
+package org.csstudio.team.repomonitor.core;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Immutable summary of a single commit, as shown in a list of incoming commits.
+ */
+public class CommitSummary {
+
+	private final ObjectId id;
+
+	private final String shortMessage;
+
+	private final String author;
+
+	private final long time;
+
+	/**
+	 * @param id Id of the commit
+	 * @param shortMessage First line of the commit message
+	 * @param author Name of the author
+	 * @param time Time of the commit in milliseconds
+	 */
+	public CommitSummary(AnyObjectId id, String shortMessage, String author, long time) {
+		this.id = id.copy();
+		this.shortMessage = shortMessage;
+		this.author = author;
+		this.time = time;
+	}
+
+	public ObjectId getId() {
+		return id;
+	}
+
+	public String getShortMessage() {
+		return shortMessage;
+	}
+
+	public String getAuthor() {
+		return author;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return id.abbreviate(7).name() + " " + shortMessage;
+	}
+}
@@ -0,0 +1,22 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Create named daemon threads, so that the monitor never keeps the VM alive.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+
+	public DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+}
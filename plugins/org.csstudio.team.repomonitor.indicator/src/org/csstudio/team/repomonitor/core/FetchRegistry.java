@@ -0,0 +1,210 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.FetchResult;
+
+/**
+ * Share fetches of the same remote into the same repository.
+ *
+ * Fetches are keyed by the repository directory, the remote URL and the
+ * ref specs. A request for a fetch that is already running joins it and
+ * receives its result, instead of starting another fetch. The result of
+ * a successful fetch is reused by requests made within the result TTL,
+ * so that repeated refreshes do not fetch the same data again.
+ *
+ * A shared fetch runs under the progress monitor of the request that
+ * started it. If that request is canceled, then the requests that joined
+ * it are not failed, instead one of them starts the fetch again.
+ */
+public class FetchRegistry {
+
+	/**
+	 * Interval at which a request waiting for a shared fetch checks for cancellation.
+	 */
+	private static final long CANCEL_CHECK_INTERVAL = 250;
+
+	private final Map<String,Entry> entries = new HashMap<>();
+
+	private volatile long resultTtl;
+
+	/**
+	 * @param resultTtl Time a successful result is reused in milliseconds (zero to not reuse)
+	 */
+	public FetchRegistry(long resultTtl) {
+		this.resultTtl = resultTtl;
+	}
+
+	public long getResultTtl() {
+		return resultTtl;
+	}
+
+	public void setResultTtl(long resultTtl) {
+		this.resultTtl = resultTtl;
+	}
+
+	/**
+	 * Get the key of a fetch.
+	 *
+	 * @param directory The repository directory
+	 * @param url The URL of the remote
+	 * @param options Anything else that changes what is fetched (ie ref specs and tag option)
+	 */
+	public static String getKey(File directory, String url, String options) {
+		return directory.getAbsolutePath() + "#" + url + "#" + options;
+	}
+
+	/**
+	 * Run a fetch, or join the running or recent fetch with the same key.
+	 *
+	 * @param key The key of the fetch (see {@link #getKey(File, String, String)})
+	 * @param fetch The fetch, called on this thread if there is no fetch to join
+	 * @param progress Checked for cancellation while waiting for a shared fetch,
+	 *                 and by the fetch if it is started by this request
+	 * @return The result of the fetch
+	 * @throws MonitorException If the fetch fails, or waiting is canceled
+	 */
+	public FetchResult fetch(String key, Callable<FetchResult> fetch, ProgressMonitor progress) throws MonitorException {
+		while(true) {
+			Entry entry;
+			boolean owner = false;
+			synchronized(entries) {
+				removeExpired(System.nanoTime());
+				entry = entries.get(key);
+				if(entry == null || entry.isCanceled()) {
+					entry = new Entry(fetch, progress);
+					entries.put(key, entry);
+					owner = true;
+				}
+			}
+
+			if(owner) {
+				entry.task.run();
+				synchronized(entries) {
+					if(entry.isSuccess() && resultTtl > 0) {
+						entry.completed = System.nanoTime();
+					} else if(entries.get(key) == entry) {
+						entries.remove(key);
+					}
+				}
+			}
+
+			try {
+				return await(entry, progress);
+			} catch(MonitorException e) {
+				// The fetch was canceled by the request that started it, not by this one.
+				if(owner || !entry.isCanceled() || progress.isCancelled()) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for the result of a fetch, checking for cancellation.
+	 */
+	protected FetchResult await(Entry entry, ProgressMonitor progress) throws MonitorException {
+		while(true) {
+			try {
+				return entry.task.get(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch(TimeoutException e) {
+				if(progress.isCancelled()) {
+					throw new MonitorException("Repository update canceled");
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MonitorException("Repository update interrupted", e);
+			} catch(ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof MonitorException) {
+					throw (MonitorException) cause;
+				}
+				throw new MonitorException("Exception while executing 'fetch' commannd", cause);
+			}
+		}
+	}
+
+	/**
+	 * Discard the results of completed fetches.
+	 */
+	public void clear() {
+		synchronized(entries) {
+			Iterator<Entry> it = entries.values().iterator();
+			while(it.hasNext()) {
+				if(it.next().task.isDone()) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the results that have expired (must hold the lock).
+	 */
+	protected void removeExpired(long now) {
+		long ttl = TimeUnit.MILLISECONDS.toNanos(resultTtl);
+		Iterator<Entry> it = entries.values().iterator();
+		while(it.hasNext()) {
+			Entry entry = it.next();
+			if(entry.completed != 0 && now - entry.completed >= ttl) {
+				it.remove();
+			}
+		}
+	}
+
+	protected static class Entry {
+
+		private final FutureTask<FetchResult> task;
+
+		private long completed = 0;
+
+		private volatile boolean canceled = false;
+
+		/**
+		 * @param fetch The fetch
+		 * @param progress Progress monitor of the request that runs the fetch
+		 */
+		public Entry(final Callable<FetchResult> fetch, final ProgressMonitor progress) {
+			task = new FutureTask<>(new Callable<FetchResult>() {
+				@Override
+				public FetchResult call() throws Exception {
+					try {
+						return fetch.call();
+					} catch(Exception e) {
+						// Recorded before the failure is visible to the requests that joined.
+						canceled = progress.isCancelled();
+						throw e;
+					}
+				}
+			});
+		}
+
+		/**
+		 * @return True if the fetch failed because its request was canceled
+		 */
+		public boolean isCanceled() {
+			return task.isDone() && canceled;
+		}
+
+		public boolean isSuccess() {
+			if(!task.isDone()) {
+				return false;
+			}
+			try {
+				task.get();
+				return true;
+			} catch(InterruptedException | ExecutionException e) {
+				return false;
+			}
+		}
+	}
+}
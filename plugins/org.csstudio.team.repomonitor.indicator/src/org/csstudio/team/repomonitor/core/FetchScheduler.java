@@ -0,0 +1,266 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Run a set of fetch tasks with bounded concurrency.
+ *
+ * Jobs are started in order of priority (highest first), with a limit on
+ * the total number of jobs running at once and on the number of jobs
+ * running against the same remote host. A job that runs longer than the
+ * timeout is canceled, and the scheduler no longer waits for it so that
+ * one unresponsive remote can not stall the others. As the cancellation
+ * is cooperative, the job keeps its slots until it has stopped, so the
+ * limits are never exceeded. Jobs still pending when the deadline of the
+ * cycle passes are not started, and are deferred.
+ */
+public class FetchScheduler {
+
+	private static final String LOCAL_HOST = "localhost";
+
+	private int maxConcurrent;
+
+	private int maxPerHost;
+
+	private long timeout;
+
+	private final Object lock = new Object();
+
+	private PriorityQueue<Entry> pending = new PriorityQueue<>();
+
+	private Map<IFetchTask,Long> running = new HashMap<>();
+
+	private Set<IFetchTask> canceling = new HashSet<>();
+
+	private Map<String,Integer> runningPerHost = new HashMap<>();
+
+	private Set<IFetchTask> timedOut = new HashSet<>();
+
+	private Set<IFetchTask> deferred = new HashSet<>();
+
+	private long deadline = 0;
+
+	private long sequence = 0;
+
+	private int completed = 0;
+
+	/**
+	 * @param maxConcurrent Maximum number of jobs running at once
+	 * @param maxPerHost Maximum number of jobs running at once against the same host
+	 * @param timeout Maximum run time of each job in milliseconds (zero for no limit)
+	 */
+	public FetchScheduler(int maxConcurrent, int maxPerHost, long timeout) {
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.maxPerHost = Math.max(1, maxPerHost);
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Add a job to be run.
+	 *
+	 * @param job The fetch job
+	 * @param priority Jobs with higher priority are started first
+	 */
+	public void add(IFetchTask job, long priority) {
+		synchronized(lock) {
+			pending.add(new Entry(job, priority, sequence++));
+		}
+	}
+
+	/**
+	 * Set the time after which no more jobs are started. The running
+	 * jobs are expected to stop themselves at the deadline.
+	 *
+	 * @param deadline Time from {@link System#nanoTime()} (zero for no deadline)
+	 */
+	public void setDeadline(long deadline) {
+		synchronized(lock) {
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Check if the given job was never started because the deadline passed.
+	 */
+	public boolean isDeferred(IFetchTask job) {
+		synchronized(lock) {
+			return deferred.contains(job);
+		}
+	}
+
+	/**
+	 * Check if the given job was canceled because it exceeded the timeout.
+	 */
+	public boolean isTimedOut(IFetchTask job) {
+		synchronized(lock) {
+			return timedOut.contains(job);
+		}
+	}
+
+	/**
+	 * Run the jobs and wait until all have completed or timed out. Jobs
+	 * that timed out may still be running when this returns.
+	 *
+	 * If the progress monitor is canceled, or the thread is interrupted,
+	 * then the running jobs are canceled and the pending jobs are never started.
+	 *
+	 * @param monitor Progress monitor, one unit of work for each job
+	 */
+	public void run(ProgressMonitor monitor) {
+		int reported = 0;
+		boolean interrupted = false;
+		synchronized(lock) {
+			while(!pending.isEmpty() || !running.isEmpty()) {
+				if(interrupted || monitor.isCancelled()) {
+					for(Entry entry : pending) {
+						deferred.add(entry.job);
+					}
+					pending.clear();
+					for(IFetchTask job : running.keySet()) {
+						job.cancel();
+					}
+					running.clear();
+					canceling.clear();
+					runningPerHost.clear();
+					break;
+				}
+
+				long now = System.currentTimeMillis();
+				long wait = 0;
+				if(timeout > 0) {
+					Iterator<Map.Entry<IFetchTask,Long>> it = running.entrySet().iterator();
+					while(it.hasNext()) {
+						Map.Entry<IFetchTask,Long> entry = it.next();
+						long remaining = entry.getValue() + timeout - now;
+						if(remaining <= 0) {
+							IFetchTask job = entry.getKey();
+							it.remove();
+							// The slots are released when the job calls done().
+							canceling.add(job);
+							timedOut.add(job);
+							job.cancel();
+							completed++;
+						} else if(wait == 0 || remaining < wait) {
+							wait = remaining;
+						}
+					}
+				}
+
+				if(deadline != 0) {
+					long remaining = (deadline - System.nanoTime()) / 1000000;
+					if(remaining <= 0) {
+						for(Entry entry : pending) {
+							deferred.add(entry.job);
+						}
+						completed += pending.size();
+						pending.clear();
+					} else if(!pending.isEmpty() && (wait == 0 || remaining < wait)) {
+						wait = remaining;
+					}
+				}
+
+				startJobs(now);
+
+				monitor.update(completed - reported);
+				reported = completed;
+
+				if(running.isEmpty() && pending.isEmpty()) {
+					break;
+				}
+
+				try {
+					// Wake up periodically to check for cancellation.
+					lock.wait((wait == 0) ? 1000 : Math.min(wait, 1000));
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					interrupted = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start as many pending jobs as the limits allow (must hold the lock).
+	 */
+	protected void startJobs(long now) {
+		List<Entry> deferred = new ArrayList<>();
+		while(running.size() + canceling.size() < maxConcurrent && !pending.isEmpty()) {
+			Entry entry = pending.poll();
+			String host = getHost(entry.job);
+			Integer count = runningPerHost.get(host);
+			if(count != null && count >= maxPerHost) {
+				deferred.add(entry);
+				continue;
+			}
+			runningPerHost.put(host, (count == null) ? 1 : count + 1);
+			running.put(entry.job, now);
+			entry.job.start(this);
+		}
+		pending.addAll(deferred);
+	}
+
+	/**
+	 * Release the host slot held by the given job (must hold the lock).
+	 */
+	protected void release(IFetchTask job) {
+		String host = getHost(job);
+		Integer count = runningPerHost.get(host);
+		if(count != null && count > 1) {
+			runningPerHost.put(host, count - 1);
+		} else {
+			runningPerHost.remove(host);
+		}
+	}
+
+	protected String getHost(IFetchTask job) {
+		String host = job.getRemoteHost();
+		return (host == null) ? LOCAL_HOST : host;
+	}
+
+	/**
+	 * Called by each job when it completes.
+	 */
+	public void done(IFetchTask job) {
+		synchronized(lock) {
+			if(running.remove(job) != null) {
+				release(job);
+				completed++;
+			} else if(canceling.remove(job)) {
+				release(job);
+			}
+			lock.notifyAll();
+		}
+	}
+
+	protected static class Entry implements Comparable<Entry> {
+
+		private IFetchTask job;
+
+		private long priority;
+
+		private long sequence;
+
+		public Entry(IFetchTask job, long priority, long sequence) {
+			this.job = job;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			if(priority != other.priority) {
+				return (priority > other.priority) ? -1 : 1;
+			}
+			return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+		}
+	}
+}
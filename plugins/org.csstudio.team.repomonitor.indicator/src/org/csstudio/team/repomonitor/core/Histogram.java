@@ -0,0 +1,105 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of durations (or sizes) with exponential buckets.
+ *
+ * Values are counted in buckets with upper bounds of 1, 2, 5, 10, 20, 50...
+ * so percentiles are approximate, but the count, sum and maximum are exact.
+ */
+public class Histogram {
+
+	private static final long[] BOUNDS = createBounds();
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value.
+	 */
+	public void record(long value) {
+		buckets.incrementAndGet(getBucket(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long n = count.get();
+		return (n > 0) ? (sum.get() / n) : 0;
+	}
+
+	/**
+	 * Get an approximate percentile.
+	 *
+	 * @param percentile The percentile (ie 0.95)
+	 * @return The upper bound of the bucket containing the percentile, never more than the maximum
+	 */
+	public long getPercentile(double percentile) {
+		long n = 0;
+		for(int i = 0; i < buckets.length(); i++) {
+			n += buckets.get(i);
+		}
+		if(n == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(percentile * n);
+		long seen = 0;
+		for(int i = 0; i < BOUNDS.length; i++) {
+			seen += buckets.get(i);
+			if(seen >= target) {
+				return Math.min(BOUNDS[i], max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(0.5)
+				+ ", p95=" + getPercentile(0.95) + ", max=" + getMax();
+	}
+
+	protected static int getBucket(long value) {
+		for(int i = 0; i < BOUNDS.length; i++) {
+			if(value <= BOUNDS[i]) {
+				return i;
+			}
+		}
+		return BOUNDS.length;
+	}
+
+	private static long[] createBounds() {
+		long[] bounds = new long[30];
+		long decade = 1;
+		for(int i = 0; i < bounds.length; i += 3) {
+			bounds[i] = decade;
+			bounds[i + 1] = decade * 2;
+			bounds[i + 2] = decade * 5;
+			decade *= 10;
+		}
+		return bounds;
+	}
+}
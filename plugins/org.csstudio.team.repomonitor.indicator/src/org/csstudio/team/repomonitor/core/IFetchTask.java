@@ -0,0 +1,27 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Fetch of a single repository run by the {@link FetchScheduler}.
+ */
+public interface IFetchTask {
+
+	/**
+	 * @return The host name of the remote repository, or null if the remote is local
+	 */
+	public String getRemoteHost();
+
+	/**
+	 * Start the fetch, without waiting for it to complete.
+	 * 
+	 * The task must call {@link FetchScheduler#done(IFetchTask)} when it
+	 * completes, whether or not it succeeded or was canceled.
+	 */
+	public void start(FetchScheduler scheduler);
+
+	/**
+	 * Request the fetch to stop as soon as possible.
+	 * 
+	 * @return False if the task could not be canceled
+	 */
+	public boolean cancel();
+}
@@ -0,0 +1,22 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+
+/**
+ * Cache of per-repository state whose memory is limited by the {@link MemoryBudget}.
+ */
+public interface IRepositoryCache {
+
+	/**
+	 * @param directory The repository (.git) directory
+	 * @return Estimated number of bytes used for the repository
+	 */
+	public long getMemoryUsage(File directory);
+
+	/**
+	 * Discard the state of the repository, which is recomputed when next needed.
+	 * 
+	 * @param directory The repository (.git) directory
+	 */
+	public void evict(File directory);
+}
@@ -0,0 +1,6 @@
+package org.csstudio.team.repomonitor.core;
+
+public interface IRepositoryStatusListener {
+
+	public void repositoryStatus(RepositoryStatus status);
+}
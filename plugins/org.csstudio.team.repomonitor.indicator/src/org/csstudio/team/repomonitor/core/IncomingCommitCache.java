@@ -0,0 +1,209 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Cache of the most recent incoming commits for each repository and branch.
+ *
+ * The commits are found by walking from the remote branch tip, excluding
+ * the commits reachable from the local branch tip, so only objects already
+ * fetched are read. Results are keyed on both tips, like the ahead and
+ * behind counts, and the least recently used results are discarded when
+ * there are more than the maximum number of entries.
+ */
+public class IncomingCommitCache implements IRepositoryCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	/**
+	 * Estimated size of a cached result, including its key.
+	 */
+	private static final long ENTRY_SIZE = 256;
+
+	/**
+	 * Estimated size of a commit summary, not including its strings.
+	 */
+	private static final long COMMIT_SIZE = 128;
+
+	private final int maxEntries;
+
+	private Map<String,IncomingCommits> results;
+
+	public IncomingCommitCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries Maximum number of branches for which the commits are kept
+	 */
+	public IncomingCommitCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.results = new LinkedHashMap<String,IncomingCommits>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,IncomingCommits> eldest) {
+				return size() > IncomingCommitCache.this.maxEntries;
+			}
+		};
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Get the incoming commits for the given branch tips.
+	 *
+	 * @param repository The repository containing the branches
+	 * @param branch Name of the local branch
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @param limit Maximum number of commits
+	 * @return The incoming commits, most recent first
+	 * @throws IOException If a commit can not be read from the repository
+	 */
+	public IncomingCommits get(Repository repository, String branch, AnyObjectId localId, AnyObjectId remoteId, int limit) throws IOException {
+		IncomingCommits cached = getCached(repository.getDirectory(), branch, localId, remoteId, limit);
+		if(cached != null) {
+			return cached;
+		}
+
+		List<CommitSummary> commits = new ArrayList<>();
+		boolean complete = true;
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(remoteId));
+			walk.markUninteresting(walk.parseCommit(localId));
+			RevCommit commit;
+			while((commit = walk.next()) != null) {
+				if(commits.size() >= limit) {
+					complete = false;
+					break;
+				}
+				PersonIdent author = commit.getAuthorIdent();
+				commits.add(new CommitSummary(commit, commit.getShortMessage(),
+						(author != null) ? author.getName() : "", commit.getCommitTime() * 1000L));
+			}
+		} finally {
+			walk.release();
+		}
+
+		IncomingCommits result = new IncomingCommits(localId, remoteId, commits, complete);
+		synchronized(results) {
+			results.put(getKey(repository.getDirectory(), branch), result);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the cached incoming commits, without walking any commits.
+	 *
+	 * @param directory The repository (.git) directory
+	 * @param branch Name of the local branch
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @param limit Maximum number of commits
+	 * @return The cached result, or null if the branch tips have changed
+	 *         or fewer commits than the limit were kept
+	 */
+	public IncomingCommits getCached(File directory, String branch, AnyObjectId localId, AnyObjectId remoteId, int limit) {
+		IncomingCommits previous;
+		synchronized(results) {
+			previous = results.get(getKey(directory, branch));
+		}
+		return isMatch(previous, localId, remoteId, limit) ? previous : null;
+	}
+
+	@Override
+	public long getMemoryUsage(File directory) {
+		String prefix = getKey(directory, "");
+		long usage = 0;
+		synchronized(results) {
+			for(Map.Entry<String,IncomingCommits> entry : results.entrySet()) {
+				if(entry.getKey().startsWith(prefix)) {
+					usage += getMemoryUsage(entry.getValue());
+				}
+			}
+		}
+		return usage;
+	}
+
+	protected long getMemoryUsage(IncomingCommits result) {
+		long usage = ENTRY_SIZE;
+		for(CommitSummary commit : result.getCommits()) {
+			usage += COMMIT_SIZE + 2 * (commit.getShortMessage().length() + commit.getAuthor().length());
+		}
+		return usage;
+	}
+
+	@Override
+	public void evict(File directory) {
+		String prefix = getKey(directory, "");
+		synchronized(results) {
+			Iterator<String> it = results.keySet().iterator();
+			while(it.hasNext()) {
+				if(it.next().startsWith(prefix)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discard the results of the repositories that are not in the given collection.
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		List<String> prefixes = new ArrayList<>();
+		for(File directory : directories) {
+			prefixes.add(getKey(directory, ""));
+		}
+		synchronized(results) {
+			Iterator<String> it = results.keySet().iterator();
+			while(it.hasNext()) {
+				String key = it.next();
+				boolean retain = false;
+				for(String prefix : prefixes) {
+					if(key.startsWith(prefix)) {
+						retain = true;
+						break;
+					}
+				}
+				if(!retain) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		synchronized(results) {
+			results.clear();
+		}
+	}
+
+	protected boolean isMatch(IncomingCommits result, AnyObjectId localId, AnyObjectId remoteId, int limit) {
+		return result != null && result.getLocalId().equals(localId) && result.getRemoteId().equals(remoteId)
+				&& (result.isComplete() || result.getCommits().size() >= limit);
+	}
+
+	protected String getKey(File directory, String branch) {
+		return directory.getAbsolutePath() + "#" + branch;
+	}
+}
@@ -0,0 +1,63 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Immutable list of the most recent commits reachable from the remote
+ * branch tip but not from the local branch tip.
+ */
+public class IncomingCommits {
+
+	private final ObjectId localId;
+
+	private final ObjectId remoteId;
+
+	private final List<CommitSummary> commits;
+
+	private final boolean complete;
+
+	/**
+	 * @param localId Commit at the tip of the local branch
+	 * @param remoteId Commit at the tip of the remote branch
+	 * @param commits The incoming commits, most recent first
+	 * @param complete True if the list contains all of the incoming commits
+	 */
+	public IncomingCommits(AnyObjectId localId, AnyObjectId remoteId, List<CommitSummary> commits, boolean complete) {
+		this.localId = localId.copy();
+		this.remoteId = remoteId.copy();
+		this.commits = Collections.unmodifiableList(new ArrayList<>(commits));
+		this.complete = complete;
+	}
+
+	public ObjectId getLocalId() {
+		return localId;
+	}
+
+	public ObjectId getRemoteId() {
+		return remoteId;
+	}
+
+	/**
+	 * @return The incoming commits, most recent first
+	 */
+	public List<CommitSummary> getCommits() {
+		return commits;
+	}
+
+	/**
+	 * @return True if the list contains all of the incoming commits, false if it was limited
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	@Override
+	public String toString() {
+		return "commits=" + commits.size() + (complete ? "" : "+");
+	}
+}
@@ -0,0 +1,210 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deliver events to listeners asynchronously.
+ *
+ * Events are delivered on the threads of the given executor, so a slow
+ * listener never blocks the thread that dispatches the event. Events are
+ * coalesced by key: if several events with the same key are dispatched
+ * before they are delivered, then only the latest is delivered. Each
+ * listener receives at most one batch of events per interval, and the
+ * events for a single listener are always delivered in order, one batch
+ * at a time.
+ *
+ * @param <L> The listener type
+ * @param <E> The event type
+ */
+public abstract class ListenerDispatcher<L,E> {
+
+	private final ScheduledExecutorService executor;
+
+	private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+
+	private volatile long interval;
+
+	/**
+	 * @param executor The executor used to deliver the events
+	 * @param interval The default minimum time between deliveries to a listener in milliseconds
+	 */
+	public ListenerDispatcher(ScheduledExecutorService executor, long interval) {
+		this.executor = executor;
+		this.interval = interval;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Set the default minimum time between deliveries to a listener,
+	 * used for listeners added after this is set.
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Add a listener using the default interval.
+	 *
+	 * @return True if the listener was added, false if it was already added
+	 */
+	public boolean addListener(L listener) {
+		return addListener(listener, interval);
+	}
+
+	/**
+	 * Add a listener.
+	 *
+	 * @param listener The listener
+	 * @param interval Minimum time between deliveries to this listener in milliseconds
+	 * @return True if the listener was added, false if it was already added
+	 */
+	public synchronized boolean addListener(L listener, long interval) {
+		if(getDelivery(listener) != null) {
+			return false;
+		}
+		deliveries.add(new Delivery(listener, interval));
+		return true;
+	}
+
+	/**
+	 * Remove a listener. Pending events are discarded.
+	 *
+	 * @return True if the listener was removed
+	 */
+	public synchronized boolean removeListener(L listener) {
+		Delivery delivery = getDelivery(listener);
+		if(delivery == null) {
+			return false;
+		}
+		delivery.removed = true;
+		return deliveries.remove(delivery);
+	}
+
+	/**
+	 * Dispatch an event to all listeners.
+	 *
+	 * @param key Key used to coalesce the event with pending events
+	 * @param event The event
+	 */
+	public void dispatch(Object key, E event) {
+		for(Delivery delivery : deliveries) {
+			delivery.post(key, event);
+		}
+	}
+
+	/**
+	 * Dispatch an event to a single listener (ie the current state to a new listener).
+	 *
+	 * @param listener The listener
+	 * @param key Key used to coalesce the event with pending events
+	 * @param event The event
+	 */
+	public void dispatch(L listener, Object key, E event) {
+		Delivery delivery = getDelivery(listener);
+		if(delivery != null) {
+			delivery.post(key, event);
+		}
+	}
+
+	/**
+	 * Deliver an event to a listener, called on an executor thread.
+	 */
+	protected abstract void deliver(L listener, E event) throws Exception;
+
+	/**
+	 * Handle an exception thrown by a listener. By default the exception is ignored.
+	 */
+	protected void handleException(L listener, Exception e) {
+		// ignore //
+	}
+
+	protected Delivery getDelivery(L listener) {
+		for(Delivery delivery : deliveries) {
+			if(delivery.listener.equals(listener)) {
+				return delivery;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The pending events of a single listener.
+	 */
+	protected class Delivery implements Runnable {
+
+		private final L listener;
+
+		private final long interval;
+
+		private Map<Object,E> pending = new LinkedHashMap<>();
+
+		private boolean scheduled = false;
+
+		private long lastDelivery = 0;
+
+		private volatile boolean removed = false;
+
+		public Delivery(L listener, long interval) {
+			this.listener = listener;
+			this.interval = interval;
+		}
+
+		public synchronized void post(Object key, E event) {
+			if(removed) {
+				return;
+			}
+			// Remove first, so that the event moves to the end of the order.
+			pending.remove(key);
+			pending.put(key, event);
+			if(!scheduled) {
+				long delay = Math.max(0, (lastDelivery + interval) - System.currentTimeMillis());
+				schedule(delay);
+			}
+		}
+
+		@Override
+		public void run() {
+			Map<Object,E> events;
+			synchronized(this) {
+				events = pending;
+				pending = new LinkedHashMap<>();
+			}
+			Iterator<E> iterator = events.values().iterator();
+			while(iterator.hasNext() && !removed) {
+				E event = iterator.next();
+				try {
+					deliver(listener, event);
+				} catch(Exception e) {
+					handleException(listener, e);
+				}
+			}
+			synchronized(this) {
+				lastDelivery = System.currentTimeMillis();
+				scheduled = false;
+				if(!pending.isEmpty() && !removed) {
+					schedule(interval);
+				}
+			}
+		}
+
+		protected void schedule(long delay) {
+			try {
+				executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+				scheduled = true;
+			} catch(RejectedExecutionException e) {
+				// Executor has been shut down, discard the events. //
+				pending.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Limit the memory used by the caches of the monitored repositories.
+ *
+ * The repositories are kept in order of last use. When the estimated
+ * memory of all caches exceeds the limit, the state of the least recently
+ * used repositories is evicted from every cache until it is within the
+ * limit again. Repositories that are being updated are never evicted.
+ */
+public class MemoryBudget {
+
+	private List<IRepositoryCache> caches = new CopyOnWriteArrayList<>();
+
+	private LinkedHashMap<File,Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+	private Map<File,Integer> active = new HashMap<>();
+
+	private volatile long limit;
+
+	private long evictions = 0;
+
+	/**
+	 * @param limit The limit in bytes (zero for no limit)
+	 */
+	public MemoryBudget(long limit) {
+		this.limit = limit;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public void addCache(IRepositoryCache cache) {
+		caches.add(cache);
+	}
+
+	public void removeCache(IRepositoryCache cache) {
+		caches.remove(cache);
+	}
+
+	/**
+	 * Mark the repository as used, and protect it from eviction until released.
+	 */
+	public synchronized void acquire(File directory) {
+		recent.put(directory, Boolean.TRUE);
+		Integer count = active.get(directory);
+		active.put(directory, (count != null) ? count + 1 : 1);
+	}
+
+	/**
+	 * Allow the repository to be evicted again.
+	 */
+	public synchronized void release(File directory) {
+		Integer count = active.get(directory);
+		if(count == null || count <= 1) {
+			active.remove(directory);
+		} else {
+			active.put(directory, count - 1);
+		}
+	}
+
+	/**
+	 * Forget the repositories that are not in the given collection.
+	 */
+	public synchronized void retainRepositories(Collection<File> directories) {
+		recent.keySet().retainAll(directories);
+	}
+
+	/**
+	 * @return Estimated number of bytes used by all caches
+	 */
+	public synchronized long getMemoryUsage() {
+		long usage = 0;
+		for(File directory : recent.keySet()) {
+			usage += getMemoryUsage(directory);
+		}
+		return usage;
+	}
+
+	/**
+	 * @return Number of repositories evicted since the budget was created
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Evict the least recently used repositories until the memory used is within the limit.
+	 *
+	 * @return Number of repositories evicted
+	 */
+	public synchronized int trim() {
+		long max = limit;
+		if(max <= 0) {
+			return 0;
+		}
+		Map<File,Long> usages = new LinkedHashMap<>();
+		long usage = 0;
+		for(File directory : recent.keySet()) {
+			long repositoryUsage = getMemoryUsage(directory);
+			usages.put(directory, repositoryUsage);
+			usage += repositoryUsage;
+		}
+		List<File> evicted = new ArrayList<>();
+		for(Map.Entry<File,Long> entry : usages.entrySet()) {
+			if(usage <= max) {
+				break;
+			}
+			if(active.containsKey(entry.getKey()) || entry.getValue() == 0) {
+				continue;
+			}
+			for(IRepositoryCache cache : caches) {
+				cache.evict(entry.getKey());
+			}
+			usage -= entry.getValue();
+			evicted.add(entry.getKey());
+		}
+		// Evicted repositories have nothing left to evict until they are used again.
+		recent.keySet().removeAll(evicted);
+		evictions += evicted.size();
+		return evicted.size();
+	}
+
+	protected long getMemoryUsage(File directory) {
+		long usage = 0;
+		for(IRepositoryCache cache : caches) {
+			usage += cache.getMemoryUsage(directory);
+		}
+		return usage;
+	}
+}
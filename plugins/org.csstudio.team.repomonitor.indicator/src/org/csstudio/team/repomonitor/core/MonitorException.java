@@ -0,0 +1,31 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Failure to determine the status of a repository.
+ *
+ * A warning means the status was determined but may be misleading
+ * (ie the branches have no common ancestor), otherwise it is an error.
+ */
+public class MonitorException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean warning;
+
+	public MonitorException(String message) {
+		this(message, null, false);
+	}
+
+	public MonitorException(String message, Throwable cause) {
+		this(message, cause, false);
+	}
+
+	public MonitorException(String message, Throwable cause, boolean warning) {
+		super(message, cause);
+		this.warning = warning;
+	}
+
+	public boolean isWarning() {
+		return warning;
+	}
+}
@@ -0,0 +1,199 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing and transfer statistics of the repository monitor.
+ *
+ * All counters are lock free, so recording has no effect on the monitor
+ * jobs. Durations are in microseconds and sizes are in bytes.
+ */
+public class MonitorMetrics {
+
+	private final ConcurrentHashMap<File,RepositoryMetrics> repositories = new ConcurrentHashMap<>();
+
+	private final Histogram cycleTime = new Histogram();
+
+	private final Histogram cycleFetches = new Histogram();
+
+	private final long startTime = System.currentTimeMillis();
+
+	/**
+	 * Get the metrics of a repository, creating them if needed.
+	 *
+	 * @param directory The repository (.git) directory
+	 */
+	public RepositoryMetrics getRepositoryMetrics(File directory) {
+		RepositoryMetrics metrics = repositories.get(directory);
+		if(metrics == null) {
+			metrics = new RepositoryMetrics(directory);
+			RepositoryMetrics existing = repositories.putIfAbsent(directory, metrics);
+			if(existing != null) {
+				metrics = existing;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return The metrics of each repository, slowest fetch first
+	 */
+	public List<RepositoryMetrics> getRepositoryMetrics() {
+		List<RepositoryMetrics> metrics = new ArrayList<>(repositories.values());
+		Collections.sort(metrics, new Comparator<RepositoryMetrics>() {
+			@Override
+			public int compare(RepositoryMetrics m1, RepositoryMetrics m2) {
+				return Long.compare(m2.getFetchTime().getMean(), m1.getFetchTime().getMean());
+			}
+		});
+		return metrics;
+	}
+
+	/**
+	 * Record a completed monitor cycle.
+	 *
+	 * @param duration Time taken by the cycle
+	 * @param fetches Number of repositories fetched in the cycle
+	 */
+	public void recordCycle(long duration, int fetches) {
+		cycleTime.record(duration);
+		cycleFetches.record(fetches);
+	}
+
+	public Histogram getCycleTime() {
+		return cycleTime;
+	}
+
+	public Histogram getCycleFetches() {
+		return cycleFetches;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Discard the metrics of repositories that are no longer monitored.
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		repositories.keySet().retainAll(directories);
+	}
+
+	/**
+	 * @return A readable report of all metrics
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder("Repository Monitor Metrics\n");
+		report.append("cycles: ").append(cycleTime).append('\n');
+		report.append("fetches per cycle: ").append(cycleFetches).append('\n');
+		for(RepositoryMetrics metrics : getRepositoryMetrics()) {
+			report.append(metrics).append('\n');
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Timing and transfer statistics of a single repository.
+	 */
+	public static class RepositoryMetrics {
+
+		private final File directory;
+
+		private final Histogram fetchTime = new Histogram();
+
+		private final Histogram bytesReceived = new Histogram();
+
+		private final Histogram resolveTime = new Histogram();
+
+		private final Histogram countTime = new Histogram();
+
+		private final Histogram scanTime = new Histogram();
+
+		private final AtomicLong fetchFailures = new AtomicLong();
+
+		public RepositoryMetrics(File directory) {
+			this.directory = directory;
+		}
+
+		public File getDirectory() {
+			return directory;
+		}
+
+		/**
+		 * Record a fetch from a remote.
+		 *
+		 * @param duration Time taken by the fetch
+		 * @param bytes Approximate number of bytes received
+		 * @param success False if the fetch failed
+		 */
+		public void recordFetch(long duration, long bytes, boolean success) {
+			fetchTime.record(duration);
+			if(success) {
+				bytesReceived.record(bytes);
+			} else {
+				fetchFailures.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Record the time taken to resolve the branches, upstreams and refs.
+		 */
+		public void recordResolve(long duration) {
+			resolveTime.record(duration);
+		}
+
+		/**
+		 * Record the time taken to count the commits ahead and behind.
+		 */
+		public void recordCount(long duration) {
+			countTime.record(duration);
+		}
+
+		/**
+		 * Record the time taken to scan the working tree for uncommitted changes.
+		 */
+		public void recordScan(long duration) {
+			scanTime.record(duration);
+		}
+
+		public Histogram getFetchTime() {
+			return fetchTime;
+		}
+
+		public Histogram getBytesReceived() {
+			return bytesReceived;
+		}
+
+		public Histogram getResolveTime() {
+			return resolveTime;
+		}
+
+		public Histogram getCountTime() {
+			return countTime;
+		}
+
+		public Histogram getScanTime() {
+			return scanTime;
+		}
+
+		public long getFetchFailures() {
+			return fetchFailures.get();
+		}
+
+		@Override
+		public String toString() {
+			File parent = directory.getParentFile();
+			String name = (parent != null) ? parent.getName() : directory.getName();
+			return name + ": fetch[" + fetchTime + ", failures=" + getFetchFailures() + "] bytes["
+					+ bytesReceived + ", total=" + bytesReceived.getSum() + "] resolve[" + resolveTime
+					+ "] count[" + countTime + "] scan[" + scanTime + "]";
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Settings of the repository monitor.
+ *
+ * The settings are read at the start of each monitor cycle, or as each
+ * repository is updated, so changes take effect without a restart.
+ */
+public class MonitorSettings {
+
+	public static final long DEFAULT_MONITOR_DELAY = 360000; // 1 hour
+	
+	public static final long DEFAULT_MIN_MONITOR_DELAY = DEFAULT_MONITOR_DELAY / 4;
+	
+	public static final long DEFAULT_MAX_MONITOR_DELAY = DEFAULT_MONITOR_DELAY * 8;
+	
+	public static final int DEFAULT_MAX_CYCLE_FETCHES = 20;
+	
+	public static final long DEFAULT_FETCH_TIMEOUT = 120000; // 2 minutes
+	
+	public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+	
+	public static final int DEFAULT_MAX_HOST_FETCHES = 2;
+	
+	public static final long DEFAULT_LISTENER_INTERVAL = 250;
+	
+	public static final long DEFAULT_FETCH_RESULT_TTL = 10000; // 10 seconds
+	
+	public static final long DEFAULT_LOCAL_REFRESH_DELAY = 60000; // 1 minute
+	
+	/**
+	 * An indexed commit uses about 40 bytes (up to twice that while the index
+	 * grows), so this holds the commit graph indexes of 100 repositories of
+	 * 10,000 commits each. Indexes evicted beyond that are read again from
+	 * their files, not rebuilt, and indexes that are not stored are not evicted.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024; // 64 MB
+	
+	public static final int DEFAULT_INCOMING_COMMIT_LIMIT = 5;
+	
+	private volatile long monitorDelay = DEFAULT_MONITOR_DELAY;
+	
+	private volatile long minMonitorDelay = DEFAULT_MIN_MONITOR_DELAY;
+	
+	private volatile long maxMonitorDelay = DEFAULT_MAX_MONITOR_DELAY;
+	
+	private volatile int maxCycleFetches = DEFAULT_MAX_CYCLE_FETCHES;
+	
+	private volatile boolean probeRemote = false;
+	
+	private volatile long fetchTimeout = DEFAULT_FETCH_TIMEOUT;
+	
+	private volatile int maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+	
+	private volatile int maxHostFetches = DEFAULT_MAX_HOST_FETCHES;
+	
+	private volatile boolean monitorAllBranches = false;
+	
+	private volatile boolean narrowFetch = false;
+	
+	private volatile boolean fetchTags = true;
+	
+	private volatile long cycleBudget = 0;
+	
+	private volatile long fetchResultTtl = DEFAULT_FETCH_RESULT_TTL;
+	
+	private volatile boolean offline = false;
+	
+	private volatile long localRefreshDelay = DEFAULT_LOCAL_REFRESH_DELAY;
+	
+	private volatile boolean checkWorkingTree = true;
+	
+	private volatile boolean useCommitGraph = true;
+	
+	private volatile long memoryBudget = DEFAULT_MEMORY_BUDGET;
+	
+	private volatile int incomingCommitLimit = DEFAULT_INCOMING_COMMIT_LIMIT;
+	
+	public long getMonitorDelay() {
+		return monitorDelay;
+	}
+
+	public void setMonitorDelay(long monitorDelay) {
+		this.monitorDelay = monitorDelay;
+	}
+
+	public long getMinMonitorDelay() {
+		return minMonitorDelay;
+	}
+
+	/**
+	 * Set the shortest interval between fetches of a repository that changes frequently.
+	 */
+	public void setMinMonitorDelay(long minMonitorDelay) {
+		this.minMonitorDelay = minMonitorDelay;
+	}
+
+	public long getMaxMonitorDelay() {
+		return maxMonitorDelay;
+	}
+
+	/**
+	 * Set the longest interval between fetches of a repository that is quiet or failing.
+	 */
+	public void setMaxMonitorDelay(long maxMonitorDelay) {
+		this.maxMonitorDelay = maxMonitorDelay;
+	}
+
+	public int getMaxCycleFetches() {
+		return maxCycleFetches;
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched in one monitor cycle (zero for no limit).
+	 */
+	public void setMaxCycleFetches(int maxCycleFetches) {
+		this.maxCycleFetches = maxCycleFetches;
+	}
+
+	public boolean isProbeRemote() {
+		return probeRemote;
+	}
+
+	/**
+	 * Set if the remote refs should be listed before fetching, so that the
+	 * fetch can be skipped when the remote has not changed.
+	 * 
+	 * @param probeRemote True to list remote refs before fetching
+	 */
+	public void setProbeRemote(boolean probeRemote) {
+		this.probeRemote = probeRemote;
+	}
+
+	public long getFetchTimeout() {
+		return fetchTimeout;
+	}
+
+	/**
+	 * Set the maximum time allowed for fetching a single repository.
+	 * 
+	 * @param fetchTimeout Timeout in milliseconds (zero for no limit)
+	 */
+	public void setFetchTimeout(long fetchTimeout) {
+		this.fetchTimeout = fetchTimeout;
+	}
+
+	public int getMaxConcurrentFetches() {
+		return maxConcurrentFetches;
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched at the same time.
+	 */
+	public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+		this.maxConcurrentFetches = maxConcurrentFetches;
+	}
+
+	public int getMaxHostFetches() {
+		return maxHostFetches;
+	}
+
+	/**
+	 * Set the maximum number of repositories fetched at the same time from the same remote host.
+	 */
+	public void setMaxHostFetches(int maxHostFetches) {
+		this.maxHostFetches = maxHostFetches;
+	}
+
+	public boolean isMonitorAllBranches() {
+		return monitorAllBranches;
+	}
+
+	/**
+	 * Set if every local branch with an upstream should be monitored,
+	 * instead of only the checked out branch.
+	 * 
+	 * @param monitorAllBranches True to monitor all tracked branches
+	 */
+	public void setMonitorAllBranches(boolean monitorAllBranches) {
+		this.monitorAllBranches = monitorAllBranches;
+	}
+
+	public boolean isNarrowFetch() {
+		return narrowFetch;
+	}
+
+	/**
+	 * Set if only the upstream refs of the monitored branches should be fetched,
+	 * instead of using the fetch ref specs configured for the remote.
+	 * 
+	 * @param narrowFetch True to fetch only the monitored refs
+	 */
+	public void setNarrowFetch(boolean narrowFetch) {
+		this.narrowFetch = narrowFetch;
+	}
+
+	public boolean isFetchTags() {
+		return fetchTags;
+	}
+
+	/**
+	 * Set if tags should be automatically followed when fetching.
+	 * 
+	 * @param fetchTags False to fetch no tags
+	 */
+	public void setFetchTags(boolean fetchTags) {
+		this.fetchTags = fetchTags;
+	}
+
+	public long getCycleBudget() {
+		return cycleBudget;
+	}
+
+	/**
+	 * Set the maximum time allowed for a monitor cycle. Fetches still running
+	 * at the end of the budget are canceled, and the repositories not yet
+	 * fetched are deferred to the next cycle.
+	 * 
+	 * @param cycleBudget Budget in milliseconds (zero for no limit)
+	 */
+	public void setCycleBudget(long cycleBudget) {
+		this.cycleBudget = cycleBudget;
+	}
+
+	public long getFetchResultTtl() {
+		return fetchResultTtl;
+	}
+
+	/**
+	 * Set the time for which the result of a fetch is reused by further
+	 * requests to fetch the same remote into the same repository.
+	 * 
+	 * @param fetchResultTtl Time in milliseconds (zero to not reuse results)
+	 */
+	public void setFetchResultTtl(long fetchResultTtl) {
+		this.fetchResultTtl = fetchResultTtl;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Set if the remotes should never be fetched. The status of each repository
+	 * is then determined from its existing remote tracking refs only.
+	 * 
+	 * @param offline True to not access the network
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public long getLocalRefreshDelay() {
+		return localRefreshDelay;
+	}
+
+	/**
+	 * Set the interval at which the repositories that are not due to be
+	 * fetched are compared with their existing remote tracking refs.
+	 * 
+	 * @param localRefreshDelay Interval in milliseconds (zero to disable)
+	 */
+	public void setLocalRefreshDelay(long localRefreshDelay) {
+		this.localRefreshDelay = localRefreshDelay;
+	}
+
+	public boolean isCheckWorkingTree() {
+		return checkWorkingTree;
+	}
+
+	/**
+	 * Set if the working trees are checked for modified and untracked files.
+	 */
+	public void setCheckWorkingTree(boolean checkWorkingTree) {
+		this.checkWorkingTree = checkWorkingTree;
+	}
+
+	public boolean isUseCommitGraph() {
+		return useCommitGraph;
+	}
+
+	/**
+	 * Set if the commits ahead and behind are counted using the commit graph
+	 * index, rather than by parsing the commits of each comparison. The history
+	 * of each repository is indexed in the background, and its commits are
+	 * counted by parsing them until the index is ready.
+	 */
+	public void setUseCommitGraph(boolean useCommitGraph) {
+		this.useCommitGraph = useCommitGraph;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the memory allowed for the cached state of the repositories, the
+	 * state of the least recently updated repositories is discarded first.
+	 * 
+	 * @param memoryBudget Estimated number of bytes (zero for no limit)
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public int getIncomingCommitLimit() {
+		return incomingCommitLimit;
+	}
+
+	/**
+	 * Set the number of incoming commits summarized for each repository
+	 * that is behind its upstream.
+	 * 
+	 * @param incomingCommitLimit Maximum number of commits (zero to not summarize them)
+	 */
+	public void setIncomingCommitLimit(int incomingCommitLimit) {
+		this.incomingCommitLimit = incomingCommitLimit;
+	}
+}
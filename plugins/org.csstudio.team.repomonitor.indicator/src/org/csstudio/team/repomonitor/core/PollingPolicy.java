@@ -0,0 +1,185 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decide when each repository should next be fetched.
+ *
+ * Each repository has its own polling interval. The interval is halved
+ * when a fetch finds changes on the remote, and doubled when it does not,
+ * within the minimum and maximum intervals. After a failed fetch the
+ * interval grows exponentially with the number of consecutive failures.
+ * A random jitter is applied so that repositories (and workstations)
+ * do not stay synchronized, and the number of fetches in a single cycle
+ * is limited, with the most overdue repositories fetched first.
+ */
+public class PollingPolicy {
+
+	/**
+	 * Fraction of the interval used as the maximum random jitter.
+	 */
+	public static final double JITTER = 0.2;
+
+	private long interval;
+
+	private long minInterval;
+
+	private long maxInterval;
+
+	private int maxFetches;
+
+	private boolean backlog = false;
+
+	private Random random = new Random();
+
+	private Map<File,PollState> states = new ConcurrentHashMap<>();
+
+	/**
+	 * @param interval Initial polling interval in milliseconds
+	 * @param minInterval Minimum polling interval in milliseconds
+	 * @param maxInterval Maximum polling interval in milliseconds
+	 * @param maxFetches Maximum number of fetches in one cycle (zero for no limit)
+	 */
+	public void configure(long interval, long minInterval, long maxInterval, int maxFetches) {
+		this.minInterval = Math.max(1, Math.min(minInterval, maxInterval));
+		this.maxInterval = Math.max(this.minInterval, maxInterval);
+		this.interval = clamp(interval);
+		this.maxFetches = maxFetches;
+	}
+
+	/**
+	 * Select the repositories that are due to be fetched.
+	 *
+	 * @param directories The directories of all monitored repositories
+	 * @param now The current time
+	 * @param force True if all repositories are due (ie manual refresh)
+	 * @return The due repository directories, most overdue first
+	 */
+	public List<File> selectDue(Collection<File> directories, long now, boolean force) {
+		states.keySet().retainAll(directories);
+
+		final Map<File,Long> overdue = new HashMap<>();
+		for(File directory : directories) {
+			PollState state = states.get(directory);
+			long nextPoll = (state == null || force) ? 0 : state.nextPoll;
+			if(nextPoll <= now) {
+				overdue.put(directory, now - nextPoll);
+			}
+		}
+
+		List<File> due = new ArrayList<>(overdue.keySet());
+		Collections.sort(due, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(overdue.get(f2), overdue.get(f1));
+			}
+		});
+
+		backlog = (maxFetches > 0 && due.size() > maxFetches);
+		if(backlog) {
+			due = new ArrayList<>(due.subList(0, maxFetches));
+		}
+		return due;
+	}
+
+	/**
+	 * Update the polling interval of a repository after a fetch.
+	 *
+	 * @param directory The repository directory
+	 * @param success True if the fetch was successful
+	 * @param changed True if the fetch found changes on the remote
+	 * @param now The current time
+	 */
+	public void update(File directory, boolean success, boolean changed, long now) {
+		PollState state = states.get(directory);
+		if(state == null) {
+			state = new PollState(interval);
+			states.put(directory, state);
+		}
+
+		long delay;
+		if(success) {
+			state.failures = 0;
+			state.interval = clamp(changed ? (state.interval / 2) : (state.interval * 2));
+			delay = state.interval;
+		} else {
+			state.failures = Math.min(state.failures + 1, 30);
+			delay = clamp(interval << Math.min(state.failures - 1, 16));
+		}
+
+		state.nextPoll = now + jitter(delay);
+	}
+
+	/**
+	 * Record that a due repository was not fetched, or its fetch was canceled
+	 * (ie the cycle ran out of time). The repository remains due, and the
+	 * next cycle runs after the minimum interval.
+	 */
+	public void defer() {
+		backlog = true;
+	}
+
+	/**
+	 * Set the time a repository was last fetched, if it has not been fetched
+	 * yet in this session, so that it is not fetched again until it is due.
+	 *
+	 * @param directory The repository directory
+	 * @param lastPoll The time of the last fetch (ie from a previous session)
+	 */
+	public void seed(File directory, long lastPoll) {
+		if(!states.containsKey(directory)) {
+			PollState state = new PollState(interval);
+			state.nextPoll = lastPoll + jitter(interval);
+			states.put(directory, state);
+		}
+	}
+
+	/**
+	 * Get the delay until the next repository is due to be fetched.
+	 *
+	 * @param now The current time
+	 * @return Delay in milliseconds, never less than the minimum interval
+	 *         and never more than the maximum interval
+	 */
+	public long getNextDelay(long now) {
+		if(backlog) {
+			return minInterval;
+		}
+		long nextPoll = now + maxInterval;
+		for(PollState state : states.values()) {
+			nextPoll = Math.min(nextPoll, state.nextPoll);
+		}
+		return clamp(nextPoll - now);
+	}
+
+	protected long clamp(long value) {
+		return Math.max(minInterval, Math.min(maxInterval, value));
+	}
+
+	protected long jitter(long delay) {
+		double factor = 1.0 + (JITTER * ((2.0 * random.nextDouble()) - 1.0));
+		return (long) (delay * factor);
+	}
+
+	protected static class PollState {
+
+		private long interval;
+
+		private long nextPoll;
+
+		private int failures;
+
+		public PollState(long interval) {
+			this.interval = interval;
+		}
+	}
+}
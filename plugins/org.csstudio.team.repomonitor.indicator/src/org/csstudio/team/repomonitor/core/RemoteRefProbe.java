@@ -0,0 +1,103 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.LsRemoteCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+
+/**
+ * Check if a remote has changed since the last fetch.
+ *
+ * The refs advertised by the remote (as listed by 'ls-remote') are mapped
+ * through the fetch ref specs of the remote and compared with the local
+ * remote tracking refs. This only requires the initial ref advertisement,
+ * no negotiation or pack transfer, so it is much cheaper than a fetch.
+ */
+public class RemoteRefProbe {
+
+	private Repository repository;
+
+	private String remote;
+
+	private int timeout = 0;
+
+	public RemoteRefProbe(Repository repository, String remote) {
+		this.repository = repository;
+		this.remote = remote;
+	}
+
+	public String getRemote() {
+		return remote;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Set the timeout for listing the remote refs.
+	 *
+	 * @param timeout Timeout in seconds (zero for no timeout)
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Check the remote for changes.
+	 *
+	 * @return True if any advertised ref differs from its remote tracking ref
+	 * @throws GitAPIException If the remote refs can not be listed
+	 * @throws URISyntaxException If the remote configuration is invalid
+	 * @throws IOException If a local ref can not be read
+	 */
+	public boolean hasChanges() throws GitAPIException, URISyntaxException, IOException {
+		RemoteConfig config = new RemoteConfig(repository.getConfig(), remote);
+		return hasChanges(config.getFetchRefSpecs());
+	}
+
+	/**
+	 * Check the remote for changes to the refs matching the given ref specs.
+	 *
+	 * @param fetchRefSpecs The ref specs that would be used to fetch
+	 * @return True if any matching advertised ref differs from its remote tracking ref
+	 * @throws GitAPIException If the remote refs can not be listed
+	 * @throws IOException If a local ref can not be read
+	 */
+	public boolean hasChanges(List<RefSpec> fetchRefSpecs) throws GitAPIException, IOException {
+		if(fetchRefSpecs.isEmpty()) {
+			// Nothing to compare with, so assume a fetch is needed.
+			return true;
+		}
+
+		LsRemoteCommand cmd = Git.wrap(repository).lsRemote();
+		cmd.setRemote(remote);
+		cmd.setTimeout(timeout);
+		Collection<Ref> advertisedRefs = cmd.call();
+
+		for(Ref advertisedRef : advertisedRefs) {
+			for(RefSpec refSpec : fetchRefSpecs) {
+				if(!refSpec.matchSource(advertisedRef)) {
+					continue;
+				}
+				String destination = refSpec.expandFromSource(advertisedRef).getDestination();
+				if(destination == null) {
+					continue;
+				}
+				Ref trackingRef = repository.getRef(destination);
+				if(trackingRef == null || !advertisedRef.getObjectId().equals(trackingRef.getObjectId())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,6 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Status of a repository, or the overall status of all monitored repositories.
+ */
+public enum RepoStatus { ERROR, BUSY, SYNC, AHEAD, BEHIND, DIVERGE }
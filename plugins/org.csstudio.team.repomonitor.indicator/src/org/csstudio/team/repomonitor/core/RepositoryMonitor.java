@@ -0,0 +1,917 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Monitor a set of repositories for commits ahead and behind their upstream.
+ *
+ * This is the monitoring engine, independent of the workbench: the set of
+ * repositories is given by the caller, and the status of each repository
+ * is delivered to the listeners as it is updated. The monitor can run its
+ * own cycles (see {@link #start()}), or a scheduler such as an Eclipse job
+ * can drive the cycle using {@link #selectDue(long, boolean)},
+ * {@link #newUpdater(Repository, boolean)} and {@link #completed(RepositoryUpdater, long)}.
+ */
+public class RepositoryMonitor {
+
+	public static final int LISTENER_THREADS = 2;
+	
+	private static final Logger LOG = Logger.getLogger(RepositoryMonitor.class.getName());
+	
+	private MonitorSettings settings;
+	
+	private AheadBehindCache aheadBehindCache = new AheadBehindCache();
+	
+	private UpstreamResolver upstreamResolver = new UpstreamResolver();
+	
+	private WorkingTreeScanner workingTreeScanner = new WorkingTreeScanner();
+	
+	private IncomingCommitCache incomingCommitCache = new IncomingCommitCache();
+	
+	private Set<File> incomingPending = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	
+	private volatile boolean trackingChanges = false;
+	
+	private PollingPolicy pollingPolicy = new PollingPolicy();
+	
+	private MonitorMetrics metrics = new MonitorMetrics();
+	
+	private FetchRegistry fetchRegistry;
+	
+	private Map<File,Repository> repositories = new ConcurrentHashMap<>();
+	
+	private Map<File,RepositoryStatus> statuses = new ConcurrentHashMap<>();
+	
+	private Map<File,RepositoryStatus> restored = new ConcurrentHashMap<>();
+	
+	private volatile RepositoryStatusStore statusStore;
+	
+	private volatile CommitGraphCache commitGraphCache = new CommitGraphCache(null);
+	
+	private Set<File> graphPending = Collections.newSetFromMap(new ConcurrentHashMap<File,Boolean>());
+	
+	private CancelableProgressMonitor graphProgress = new CancelableProgressMonitor(NullProgressMonitor.INSTANCE, 0);
+	
+	private MemoryBudget memoryBudget = new MemoryBudget(0);
+	
+	private ScheduledExecutorService executor = Executors.newScheduledThreadPool(LISTENER_THREADS,
+			new DaemonThreadFactory("Repository Monitor Listener Thread"));
+	
+	private StatusListenerDispatcher listeners = new StatusListenerDispatcher(executor);
+	
+	private ScheduledExecutorService cycleExecutor;
+	
+	private ExecutorService fetchExecutor;
+	
+	private ExecutorService incomingExecutor;
+	
+	private ExecutorService graphExecutor;
+	
+	private ScheduledFuture<?> cycle;
+	
+	private boolean cycleRunning = false;
+	
+	private volatile boolean forceUpdate = false;
+	
+	private volatile long lastLocalRefresh = 0;
+	
+	public RepositoryMonitor() {
+		this(new MonitorSettings());
+	}
+	
+	public RepositoryMonitor(MonitorSettings settings) {
+		this.settings = settings;
+		this.fetchRegistry = new FetchRegistry(settings.getFetchResultTtl());
+		memoryBudget.addCache(aheadBehindCache);
+		memoryBudget.addCache(upstreamResolver);
+		memoryBudget.addCache(workingTreeScanner);
+		memoryBudget.addCache(incomingCommitCache);
+		memoryBudget.addCache(commitGraphCache);
+	}
+	
+	public MonitorSettings getSettings() {
+		return settings;
+	}
+	
+	public AheadBehindCache getAheadBehindCache() {
+		return aheadBehindCache;
+	}
+	
+	public UpstreamResolver getUpstreamResolver() {
+		return upstreamResolver;
+	}
+	
+	public WorkingTreeScanner getWorkingTreeScanner() {
+		return workingTreeScanner;
+	}
+	
+	public IncomingCommitCache getIncomingCommitCache() {
+		return incomingCommitCache;
+	}
+	
+	/**
+	 * @return True if the paths changed in the working trees are reported with {@link #touch(File, String)}
+	 */
+	public boolean isTrackingChanges() {
+		return trackingChanges;
+	}
+	
+	/**
+	 * Set if the paths changed in the working trees are reported, so that
+	 * local refreshes only scan those paths for uncommitted changes, while
+	 * fetch updates still scan the whole working tree to find changes that
+	 * were not reported.
+	 */
+	public void setTrackingChanges(boolean trackingChanges) {
+		this.trackingChanges = trackingChanges;
+	}
+	
+	/**
+	 * Record that a path in the working tree of a repository has changed.
+	 * 
+	 * @param directory The repository (.git) directory
+	 * @param path Path relative to the working tree
+	 */
+	public void touch(File directory, String path) {
+		workingTreeScanner.touch(directory, path);
+	}
+	
+	/**
+	 * @return The registry used to share fetches of the same remote, using the current result TTL
+	 */
+	public FetchRegistry getFetchRegistry() {
+		fetchRegistry.setResultTtl(settings.getFetchResultTtl());
+		return fetchRegistry;
+	}
+	
+	/**
+	 * @return The timing and transfer statistics of the monitor
+	 */
+	public MonitorMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return The executor used to deliver status changes to listeners
+	 */
+	public ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Set the repositories to be monitored.
+	 * 
+	 * The status of repositories that are no longer monitored is discarded.
+	 */
+	public void setRepositories(Collection<Repository> repositories) {
+		Map<File,Repository> directories = new HashMap<>();
+		for(Repository repository : repositories) {
+			directories.put(repository.getDirectory(), repository);
+		}
+		this.repositories.keySet().retainAll(directories.keySet());
+		this.repositories.putAll(directories);
+		retainRepositories(directories.keySet());
+	}
+	
+	/**
+	 * @return The monitored repositories
+	 */
+	public Collection<Repository> getRepositories() {
+		return Collections.unmodifiableCollection(new ArrayList<>(repositories.values()));
+	}
+	
+	/**
+	 * Discard the status of repositories that are no longer monitored.
+	 * 
+	 * @param directories The directories of the repositories still monitored
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		statuses.keySet().retainAll(directories);
+		metrics.retainRepositories(directories);
+		workingTreeScanner.retainRepositories(directories);
+		incomingCommitCache.retainRepositories(directories);
+		commitGraphCache.retainRepositories(directories);
+		memoryBudget.retainRepositories(directories);
+	}
+	
+	/**
+	 * Get the status of a single repository.
+	 * 
+	 * @param directory The repository directory
+	 * @return The repository status or null if the repository is not monitored
+	 */
+	public RepositoryStatus getRepositoryStatus(File directory) {
+		return statuses.get(directory);
+	}
+	
+	/**
+	 * @return The status of all monitored repositories
+	 */
+	public Collection<RepositoryStatus> getRepositoryStatuses() {
+		return Collections.unmodifiableCollection(new ArrayList<>(statuses.values()));
+	}
+	
+	/**
+	 * Set the status of a single repository and notify the listeners.
+	 * 
+	 * If the repository is behind, then its incoming commits are found in
+	 * the background, so they are cached before they are requested.
+	 */
+	public void setRepositoryStatus(RepositoryStatus status) {
+		statuses.put(status.getDirectory(), status);
+		listeners.dispatch(status.getDirectory(), status);
+		if(status.getCommitsBehind() > 0) {
+			getIncomingCommits(status);
+		}
+	}
+	
+	/**
+	 * Get the most recent incoming commits of the current branch of a repository.
+	 * 
+	 * Only cached commits are returned, so this can be called from the UI
+	 * thread. If they are not cached, then they are found in the background
+	 * from the objects already fetched, and are available when next requested.
+	 * 
+	 * @param status The status of the repository
+	 * @return The incoming commits, or null if the repository is not behind
+	 *         or the commits have not been found yet
+	 */
+	public IncomingCommits getIncomingCommits(RepositoryStatus status) {
+		int limit = settings.getIncomingCommitLimit();
+		BranchStatus branch = status.getCurrentBranch();
+		if(limit <= 0 || branch == null || branch.getCommitsBehind() == 0) {
+			return null;
+		}
+		IncomingCommits incoming = incomingCommitCache.getCached(status.getDirectory(),
+				branch.getBranch(), branch.getLocalId(), branch.getRemoteId(), limit);
+		if(incoming == null) {
+			Repository repository = repositories.get(status.getDirectory());
+			if(repository != null && incomingPending.add(status.getDirectory())) {
+				try {
+					getIncomingExecutor().execute(new IncomingCommitsTask(repository, branch, limit));
+				} catch(RejectedExecutionException e) {
+					incomingPending.remove(status.getDirectory());
+				}
+			}
+		}
+		return incoming;
+	}
+	
+	/**
+	 * Set the store used to save the statuses between sessions.
+	 * 
+	 * @param statusStore The store, or null to not save the statuses
+	 */
+	public void setStatusStore(RepositoryStatusStore statusStore) {
+		this.statusStore = statusStore;
+	}
+	
+	public CommitGraphCache getCommitGraphCache() {
+		return commitGraphCache;
+	}
+	
+	/**
+	 * Index the history of a repository in the background, for a count that
+	 * needs too many commits to be indexed during the update. The commits
+	 * are counted by walking them until the index is ready.
+	 * 
+	 * @param repository The repository to index
+	 * @param tips The commits to add to the index, with their ancestors
+	 */
+	public void updateCommitGraph(Repository repository, AnyObjectId... tips) {
+		if(graphPending.add(repository.getDirectory())) {
+			try {
+				getGraphExecutor().execute(new CommitGraphTask(repository, tips));
+			} catch(RejectedExecutionException e) {
+				graphPending.remove(repository.getDirectory());
+			}
+		}
+	}
+	
+	/**
+	 * @return True if the commit graph index of the repository is being built in the background
+	 */
+	public boolean isCommitGraphPending(File repositoryDirectory) {
+		return graphPending.contains(repositoryDirectory);
+	}
+	
+	/**
+	 * Set the cache of commit graph indexes, which determines where they are stored.
+	 */
+	public synchronized void setCommitGraphCache(CommitGraphCache commitGraphCache) {
+		memoryBudget.removeCache(this.commitGraphCache);
+		memoryBudget.addCache(commitGraphCache);
+		this.commitGraphCache = commitGraphCache;
+	}
+	
+	/**
+	 * @return The budget that limits the memory of the caches, using the current limit
+	 */
+	public MemoryBudget getMemoryBudget() {
+		memoryBudget.setLimit(settings.getMemoryBudget());
+		return memoryBudget;
+	}
+	
+	/**
+	 * Restore the status of each repository saved in the previous session.
+	 * 
+	 * The restored statuses are marked as stale until the repositories are
+	 * updated. The branch tips and counts are added to the cache, so that
+	 * they are not counted again if unchanged, and repositories fetched
+	 * recently are not fetched again until their polling interval has elapsed.
+	 * 
+	 * @return The restored statuses
+	 */
+	public List<RepositoryStatus> restore() {
+		RepositoryStatusStore store = statusStore;
+		if(store == null) {
+			return Collections.emptyList();
+		}
+		List<RepositoryStatus> loaded;
+		try {
+			loaded = store.load();
+		} catch(IOException e) {
+			log("Error while reading saved repository status", e);
+			return Collections.emptyList();
+		}
+		for(RepositoryStatus status : loaded) {
+			statuses.put(status.getDirectory(), status);
+			restored.put(status.getDirectory(), status);
+			for(BranchStatus branch : status.getBranches()) {
+				aheadBehindCache.put(status.getDirectory(), Constants.R_HEADS + branch.getBranch(),
+						new AheadBehind(branch.getLocalId(), branch.getRemoteId(), branch.getCommitsAhead(),
+								branch.getCommitsBehind(), branch.hasMergeBase()));
+			}
+		}
+		return loaded;
+	}
+	
+	/**
+	 * Save the status of each repository, so that it can be shown immediately in the next session.
+	 */
+	public void save() {
+		try {
+			commitGraphCache.save();
+		} catch(IOException e) {
+			log("Error while saving commit graph index", e);
+		}
+		RepositoryStatusStore store = statusStore;
+		if(store == null) {
+			return;
+		}
+		try {
+			store.save(statuses.values());
+		} catch(IOException e) {
+			log("Error while saving repository status", e);
+		}
+	}
+	
+	/**
+	 * Select the repositories that are due to be fetched in this cycle.
+	 * 
+	 * @param now The current time
+	 * @param force True to select all repositories, regardless of their polling interval
+	 * @return The due repositories, most overdue first, or none in offline mode
+	 */
+	public List<Repository> selectDue(long now, boolean force) {
+		pollingPolicy.configure(settings.getMonitorDelay(), settings.getMinMonitorDelay(),
+				settings.getMaxMonitorDelay(), settings.getMaxCycleFetches());
+		for(RepositoryStatus status : restored.values()) {
+			if(!status.isError() && status.getLastFetchTime() > 0) {
+				pollingPolicy.seed(status.getDirectory(), status.getLastFetchTime());
+			}
+		}
+		restored.clear();
+		List<Repository> due = new ArrayList<>();
+		if(settings.isOffline()) {
+			return due;
+		}
+		for(File directory : pollingPolicy.selectDue(repositories.keySet(), now, force)) {
+			Repository repository = repositories.get(directory);
+			if(repository != null) {
+				due.add(repository);
+			}
+		}
+		return due;
+	}
+	
+	/**
+	 * Select the repositories with a restored status that are not due to be
+	 * fetched, so they can be checked against their local refs instead.
+	 */
+	public List<Repository> selectStale(Collection<Repository> due) {
+		Set<File> dueDirectories = new HashSet<>();
+		for(Repository repository : due) {
+			dueDirectories.add(repository.getDirectory());
+		}
+		List<Repository> stale = new ArrayList<>();
+		for(Repository repository : repositories.values()) {
+			RepositoryStatus status = statuses.get(repository.getDirectory());
+			if(status != null && status.isStale() && !dueDirectories.contains(repository.getDirectory())) {
+				stale.add(repository);
+			}
+		}
+		return stale;
+	}
+	
+	/**
+	 * Select the repositories that are not due to be fetched, but should be
+	 * compared with their existing remote tracking refs in this cycle.
+	 * 
+	 * All of them are selected if the local refresh interval has elapsed
+	 * (or for a forced update), otherwise only those with a restored status.
+	 * 
+	 * @param due The repositories due to be fetched
+	 * @param now The current time
+	 * @param force True if the update was requested by the user
+	 */
+	public List<Repository> selectRefresh(Collection<Repository> due, long now, boolean force) {
+		long delay = settings.getLocalRefreshDelay();
+		if(!force && (delay <= 0 || now - lastLocalRefresh < delay)) {
+			return selectStale(due);
+		}
+		lastLocalRefresh = now;
+		Set<File> dueDirectories = new HashSet<>();
+		for(Repository repository : due) {
+			dueDirectories.add(repository.getDirectory());
+		}
+		List<Repository> refresh = new ArrayList<>();
+		for(Repository repository : repositories.values()) {
+			if(!dueDirectories.contains(repository.getDirectory())) {
+				refresh.add(repository);
+			}
+		}
+		return refresh;
+	}
+	
+	/**
+	 * Create an updater for the given repository.
+	 * 
+	 * @param fetch True to fetch from the remote, false to only compare the local refs
+	 */
+	public RepositoryUpdater newUpdater(Repository repository, boolean fetch) {
+		return new RepositoryUpdater(this, repository, fetch);
+	}
+	
+	/**
+	 * Get the deadline of a cycle from the cycle budget.
+	 * 
+	 * @param start Start of the cycle from {@link System#nanoTime()}
+	 * @return Deadline from {@link System#nanoTime()}, or zero if there is no budget
+	 */
+	public long getCycleDeadline(long start) {
+		long budget = settings.getCycleBudget();
+		return (budget > 0) ? start + TimeUnit.MILLISECONDS.toNanos(budget) : 0;
+	}
+	
+	/**
+	 * Create a scheduler for the fetches of a cycle using the current settings.
+	 * 
+	 * @param deadline Deadline of the cycle (see {@link #getCycleDeadline(long)})
+	 */
+	public FetchScheduler newFetchScheduler(long deadline) {
+		FetchScheduler scheduler = new FetchScheduler(settings.getMaxConcurrentFetches(),
+				settings.getMaxHostFetches(), settings.getFetchTimeout());
+		scheduler.setDeadline(deadline);
+		return scheduler;
+	}
+	
+	/**
+	 * Record the result of an update, used to decide when the repository is next fetched.
+	 * 
+	 * A canceled update is deferred, so the repository remains due.
+	 */
+	public void completed(RepositoryUpdater updater, long now) {
+		if(updater.isCanceled()) {
+			deferred(updater);
+			return;
+		}
+		pollingPolicy.update(updater.getRepositoryDirectory(), updater.isSuccess(), updater.isRemoteChanged(), now);
+	}
+	
+	/**
+	 * Record an update that was not run, or did not complete, in this cycle.
+	 * The repository remains due and the next cycle is run soon.
+	 */
+	public void deferred(RepositoryUpdater updater) {
+		pollingPolicy.defer();
+	}
+	
+	/**
+	 * Record an update that was canceled because it exceeded the fetch timeout.
+	 */
+	public void timedOut(RepositoryUpdater updater, long now) {
+		setRepositoryStatus(updater.getRepositoryStatus());
+		pollingPolicy.update(updater.getRepositoryDirectory(), false, false, now);
+	}
+	
+	/**
+	 * Complete a cycle: save the statuses and record the cycle metrics.
+	 * 
+	 * @param start Start of the cycle from {@link System#nanoTime()}
+	 * @param fetches Number of repositories fetched in the cycle
+	 * @param now The current time
+	 * @return Delay until the next cycle in milliseconds, the next fetch
+	 *         or the next local refresh, whichever is sooner
+	 */
+	public long endCycle(long start, int fetches, long now) {
+		save();
+		metrics.recordCycle((System.nanoTime() - start) / 1000, fetches);
+		long delay = settings.isOffline() ? settings.getMonitorDelay() : pollingPolicy.getNextDelay(now);
+		long localDelay = settings.getLocalRefreshDelay();
+		if(localDelay > 0) {
+			delay = Math.min(delay, Math.max(0, lastLocalRefresh + localDelay - now));
+		}
+		return delay;
+	}
+	
+	/**
+	 * Get the time of the most recent activity in the repository,
+	 * used to fetch the most active repositories first.
+	 */
+	public long getLastActivity(Repository repository) {
+		return repository.getIndexFile().lastModified();
+	}
+	
+	/**
+	 * Run a complete cycle on the calling thread: the due repositories are
+	 * fetched on a thread pool, within the concurrency limits, and the status
+	 * of each is published as soon as it is updated.
+	 * 
+	 * If the cycle budget is exceeded, then the running fetches are canceled,
+	 * and the repositories not updated are deferred to the next cycle.
+	 * 
+	 * @param force True to fetch all repositories, regardless of their polling interval
+	 * @return Delay until the next cycle in milliseconds
+	 */
+	public long runCycle(boolean force) {
+		long start = System.nanoTime();
+		long deadline = getCycleDeadline(start);
+		List<Repository> due = selectDue(System.currentTimeMillis(), force);
+		
+		for(Repository repository : selectRefresh(due, System.currentTimeMillis(), force)) {
+			RepositoryUpdater updater = newUpdater(repository, false);
+			updater.setDeadline(deadline);
+			updater.update(NullProgressMonitor.INSTANCE);
+			if(!updater.isCanceled()) {
+				setRepositoryStatus(updater.getRepositoryStatus());
+			}
+		}
+		
+		FetchScheduler scheduler = newFetchScheduler(deadline);
+		List<UpdateTask> tasks = new ArrayList<>();
+		for(Repository repository : due) {
+			RepositoryUpdater updater = newUpdater(repository, true);
+			updater.setDeadline(deadline);
+			UpdateTask task = new UpdateTask(updater);
+			tasks.add(task);
+			scheduler.add(task, getLastActivity(repository));
+		}
+		
+		scheduler.run(NullProgressMonitor.INSTANCE);
+		
+		long now = System.currentTimeMillis();
+		for(UpdateTask task : tasks) {
+			if(scheduler.isTimedOut(task)) {
+				log("Timeout while fetching repository: " + task.updater.getRepositoryName(), null);
+				timedOut(task.updater, now);
+			} else if(scheduler.isDeferred(task) || !task.done) {
+				deferred(task.updater);
+			} else {
+				completed(task.updater, now);
+			}
+		}
+		
+		return endCycle(start, tasks.size(), now);
+	}
+	
+	/**
+	 * Start running cycles on a background thread, until stopped.
+	 */
+	public synchronized void start() {
+		start(0);
+	}
+	
+	/**
+	 * Start running cycles on a background thread, until stopped.
+	 * 
+	 * @param delay Delay before the first cycle in milliseconds
+	 */
+	public synchronized void start(long delay) {
+		if(cycle != null) {
+			return;
+		}
+		if(cycleExecutor == null) {
+			cycleExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Repository Monitor Thread"));
+		}
+		scheduleCycle(delay);
+	}
+	
+	/**
+	 * Stop running cycles. A cycle in progress is completed.
+	 */
+	public synchronized void stop() {
+		if(cycle != null) {
+			cycle.cancel(false);
+			cycle = null;
+		}
+	}
+	
+	/**
+	 * Run a cycle as soon as possible, fetching all repositories regardless of their polling interval.
+	 */
+	public synchronized void update() {
+		forceUpdate = true;
+		// A running cycle schedules the next one immediately when it completes.
+		if(cycle != null && !cycleRunning) {
+			cycle.cancel(false);
+			scheduleCycle(0);
+		}
+	}
+	
+	/**
+	 * Stop the monitor and release its threads.
+	 */
+	public synchronized void shutdown() {
+		stop();
+		if(cycleExecutor != null) {
+			cycleExecutor.shutdownNow();
+		}
+		if(fetchExecutor != null) {
+			fetchExecutor.shutdown();
+		}
+		if(incomingExecutor != null) {
+			incomingExecutor.shutdownNow();
+		}
+		if(graphExecutor != null) {
+			graphProgress.cancel();
+			graphExecutor.shutdownNow();
+		}
+		executor.shutdownNow();
+	}
+	
+	protected void scheduleCycle(long delay) {
+		try {
+			cycle = cycleExecutor.schedule(new CycleRunnable(), delay, TimeUnit.MILLISECONDS);
+		} catch(RejectedExecutionException e) {
+			cycle = null;
+		}
+	}
+	
+	protected synchronized ExecutorService getFetchExecutor() {
+		if(fetchExecutor == null) {
+			fetchExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("Repository Monitor Fetch Thread"));
+		}
+		return fetchExecutor;
+	}
+	
+	/**
+	 * Get the executor used to find the incoming commits, which is separate
+	 * from the listener executor so a long walk does not delay the statuses.
+	 */
+	protected synchronized ExecutorService getIncomingExecutor() {
+		if(incomingExecutor == null) {
+			incomingExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Repository Monitor Incoming Commits Thread"));
+		}
+		return incomingExecutor;
+	}
+	
+	/**
+	 * Get the executor used to build the commit graph indexes, which is
+	 * separate from the cycle so that the first index of a large history
+	 * does not delay the updates.
+	 */
+	protected synchronized ExecutorService getGraphExecutor() {
+		if(graphExecutor == null) {
+			graphExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Repository Monitor Commit Graph Thread"));
+		}
+		return graphExecutor;
+	}
+	
+	public long getListenerInterval() {
+		return listeners.getInterval();
+	}
+	
+	/**
+	 * Set the minimum time between deliveries of status changes to each listener,
+	 * used for listeners added after the interval is set.
+	 * 
+	 * @param listenerInterval Interval in milliseconds
+	 */
+	public void setListenerInterval(long listenerInterval) {
+		listeners.setInterval(listenerInterval);
+	}
+	
+	/**
+	 * Add a listener for the status of each repository.
+	 * 
+	 * Listeners are notified asynchronously. The current status of
+	 * each repository is sent to the new listener.
+	 */
+	public void addListener(IRepositoryStatusListener listener) {
+		addListener(listener, listeners.getInterval());
+	}
+	
+	/**
+	 * Add a listener for the status of each repository.
+	 * 
+	 * @param listener The listener
+	 * @param interval Minimum time between notifications in milliseconds
+	 */
+	public void addListener(IRepositoryStatusListener listener, long interval) {
+		if(listeners.addListener(listener, interval)) {
+			for(RepositoryStatus status : statuses.values()) {
+				listeners.dispatch(listener, status.getDirectory(), status);
+			}
+		}
+	}
+	
+	public void removeListener(IRepositoryStatusListener listener) {
+		listeners.removeListener(listener);
+	}
+	
+	/**
+	 * Log a warning, by default to the Java logger.
+	 * 
+	 * @param message The message
+	 * @param e The cause, or null
+	 */
+	protected void log(String message, Throwable e) {
+		LOG.log(Level.WARNING, message, e);
+	}
+	
+	protected class CycleRunnable implements Runnable {
+		
+		@Override
+		public void run() {
+			synchronized(RepositoryMonitor.this) {
+				cycleRunning = true;
+			}
+			long delay = settings.getMonitorDelay();
+			boolean force = forceUpdate;
+			forceUpdate = false;
+			try {
+				delay = runCycle(force);
+			} catch(RuntimeException e) {
+				log("Exception while running repository monitor cycle", e);
+			}
+			synchronized(RepositoryMonitor.this) {
+				cycleRunning = false;
+				if(cycle != null) {
+					scheduleCycle(forceUpdate ? 0 : delay);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Run an update on the fetch thread pool and publish its status when done.
+	 */
+	protected class UpdateTask implements IFetchTask {
+		
+		private final RepositoryUpdater updater;
+		
+		private volatile boolean done = false;
+		
+		public UpdateTask(RepositoryUpdater updater) {
+			this.updater = updater;
+		}
+		
+		@Override
+		public String getRemoteHost() {
+			return updater.getRemoteHost();
+		}
+		
+		@Override
+		public void start(final FetchScheduler scheduler) {
+			try {
+				getFetchExecutor().execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							updater.update(NullProgressMonitor.INSTANCE);
+							if(!updater.isCanceled()) {
+								setRepositoryStatus(updater.getRepositoryStatus());
+							}
+						} finally {
+							done = true;
+							scheduler.done(UpdateTask.this);
+						}
+					}
+				});
+			} catch(RejectedExecutionException e) {
+				scheduler.done(this);
+			}
+		}
+		
+		@Override
+		public boolean cancel() {
+			// Canceled cooperatively, interrupting JGit may leave partial files.
+			// The update is not removed from the executor, so that it always
+			// calls done() and its slot in the scheduler is released.
+			updater.cancel();
+			return true;
+		}
+	}
+	
+	/**
+	 * Find the incoming commits of a branch and add them to the cache.
+	 */
+	protected class IncomingCommitsTask implements Runnable {
+		
+		private final Repository repository;
+		
+		private final BranchStatus branch;
+		
+		private final int limit;
+		
+		public IncomingCommitsTask(Repository repository, BranchStatus branch, int limit) {
+			this.repository = repository;
+			this.branch = branch;
+			this.limit = limit;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				incomingCommitCache.get(repository, branch.getBranch(), branch.getLocalId(), branch.getRemoteId(), limit);
+			} catch(IOException e) {
+				log("Error while reading incoming commits of repository: " + repository.getDirectory(), e);
+			} finally {
+				incomingPending.remove(repository.getDirectory());
+			}
+		}
+	}
+	
+	/**
+	 * Add the history of a repository to its commit graph index.
+	 */
+	protected class CommitGraphTask implements Runnable {
+		
+		private final Repository repository;
+		
+		private final AnyObjectId[] tips;
+		
+		public CommitGraphTask(Repository repository, AnyObjectId... tips) {
+			this.repository = repository;
+			this.tips = tips;
+		}
+		
+		@Override
+		public void run() {
+			MemoryBudget memoryBudget = getMemoryBudget();
+			memoryBudget.acquire(repository.getDirectory());
+			try {
+				commitGraphCache.get(repository).update(repository, graphProgress, tips);
+			} catch(InterruptedIOException e) {
+				// The monitor is shut down. //
+			} catch(IOException e) {
+				log("Error while indexing commits of repository: " + repository.getDirectory(), e);
+			} finally {
+				memoryBudget.release(repository.getDirectory());
+				graphPending.remove(repository.getDirectory());
+			}
+		}
+	}
+	
+	protected class StatusListenerDispatcher extends ListenerDispatcher<IRepositoryStatusListener,RepositoryStatus> {
+		
+		public StatusListenerDispatcher(ScheduledExecutorService executor) {
+			super(executor, MonitorSettings.DEFAULT_LISTENER_INTERVAL);
+		}
+		
+		@Override
+		protected void deliver(IRepositoryStatusListener listener, RepositoryStatus event) {
+			listener.repositoryStatus(event);
+		}
+		
+		@Override
+		protected void handleException(IRepositoryStatusListener listener, Exception e) {
+			log("Exception while executing repository status listener: " + listener.getClass().getSimpleName(), e);
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+/**
+ * Run the repository monitor as a standalone process, without the workbench.
+ *
+ * Each argument that is not an option is a working directory of a repository,
+ * or a directory whose subdirectories are the working directories of the
+ * repositories to monitor. The status of each repository is printed as it
+ * is updated.
+ *
+ * Options are given as '-name=value':
+ * <pre>
+ *   -delay=360000      Initial polling interval in milliseconds
+ *   -timeout=120000    Fetch timeout in milliseconds
+ *   -concurrent=4      Maximum concurrent fetches
+ *   -host=2            Maximum concurrent fetches from the same host
+ *   -fetches=20        Maximum fetches in one cycle (zero for no limit)
+ *   -branches=false    Monitor all branches with an upstream
+ *   -graph=true        Count commits using a commit graph index
+ *   -state=...         File in which the statuses are saved between runs
+ * </pre>
+ */
+public class RepositoryMonitorDaemon {
+
+	private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+	public static void main(String[] args) throws Exception {
+		Map<String,String> options = new HashMap<>();
+		List<File> directories = new ArrayList<>();
+		for(String arg : args) {
+			if(arg.startsWith("-")) {
+				int index = arg.indexOf('=');
+				if(index < 0) {
+					options.put(arg.substring(1), "true");
+				} else {
+					options.put(arg.substring(1, index), arg.substring(index + 1));
+				}
+			} else {
+				directories.add(new File(arg));
+			}
+		}
+
+		MonitorSettings settings = new MonitorSettings();
+		settings.setMonitorDelay(getLong(options, "delay", settings.getMonitorDelay()));
+		settings.setMinMonitorDelay(settings.getMonitorDelay() / 4);
+		settings.setMaxMonitorDelay(settings.getMonitorDelay() * 8);
+		settings.setFetchTimeout(getLong(options, "timeout", settings.getFetchTimeout()));
+		settings.setMaxConcurrentFetches((int) getLong(options, "concurrent", settings.getMaxConcurrentFetches()));
+		settings.setMaxHostFetches((int) getLong(options, "host", settings.getMaxHostFetches()));
+		settings.setMaxCycleFetches((int) getLong(options, "fetches", settings.getMaxCycleFetches()));
+		settings.setMonitorAllBranches(Boolean.parseBoolean(options.get("branches")));
+		settings.setUseCommitGraph(!"false".equals(options.get("graph")));
+
+		final List<Repository> repositories = new ArrayList<>();
+		for(File directory : directories) {
+			findRepositories(directory, repositories);
+		}
+		System.out.println("Monitoring " + repositories.size() + " repositories");
+
+		final RepositoryMonitor monitor = new RepositoryMonitor(settings);
+		if(options.containsKey("state")) {
+			monitor.setStatusStore(new RepositoryStatusStore(new File(options.get("state"))));
+			monitor.setCommitGraphCache(new CommitGraphCache(new File(options.get("state") + ".graphs")));
+			monitor.restore();
+		}
+		monitor.setRepositories(repositories);
+		monitor.addListener(new PrintStatusListener(System.out), 0);
+
+		final CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				monitor.shutdown();
+				monitor.save();
+				for(Repository repository : repositories) {
+					repository.close();
+				}
+				stopped.countDown();
+			}
+		});
+
+		monitor.start();
+		stopped.await();
+	}
+
+	/**
+	 * Add the repository of the given working directory, or else the
+	 * repositories of its subdirectories.
+	 */
+	protected static void findRepositories(File directory, List<Repository> repositories) throws IOException {
+		if(addRepository(directory, repositories)) {
+			return;
+		}
+		File[] children = directory.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				if(child.isDirectory()) {
+					addRepository(child, repositories);
+				}
+			}
+		}
+	}
+
+	protected static boolean addRepository(File directory, List<Repository> repositories) throws IOException {
+		File gitDir = new File(directory, Constants.DOT_GIT);
+		if(!gitDir.isDirectory()) {
+			return false;
+		}
+		repositories.add(new FileRepository(gitDir));
+		return true;
+	}
+
+	protected static long getLong(Map<String,String> options, String name, long defaultValue) {
+		String value = options.get(name);
+		return (value != null) ? Long.parseLong(value) : defaultValue;
+	}
+
+	protected static class PrintStatusListener implements IRepositoryStatusListener {
+
+		private final PrintStream out;
+
+		public PrintStatusListener(PrintStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void repositoryStatus(RepositoryStatus status) {
+			out.println(new SimpleDateFormat(DATE_FORMAT).format(new Date()) + " " + status);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Immutable snapshot of the status of a single monitored repository.
+ */
+public class RepositoryStatus {
+
+	private final File directory;
+
+	private final String branch;
+
+	private final int commitsAhead;
+
+	private final int commitsBehind;
+
+	private final long lastFetchTime;
+
+	private final String error;
+
+	private final long duration;
+
+	private final List<BranchStatus> branches;
+
+	private final boolean stale;
+
+	private final String remoteError;
+
+	private final WorkingTreeStatus workingTree;
+
+	/**
+	 * @param directory The repository (.git) directory
+	 * @param branch The checked out branch (may be null)
+	 * @param commitsAhead Number of commits ahead, summed over the monitored branches
+	 * @param commitsBehind Number of commits behind, summed over the monitored branches
+	 * @param lastFetchTime Time of the last successful fetch (zero if never)
+	 * @param error Description of the error, or null if successful
+	 * @param duration Time taken to update the status in milliseconds
+	 * @param branches Status of each monitored branch
+	 * @param stale True if the status was restored from a previous session and not yet updated
+	 * @param remoteError Description of the failure to fetch the remote, if the status was
+	 *                    determined from the existing remote tracking refs instead (may be null)
+	 * @param workingTree Uncommitted changes in the working tree (null if not checked)
+	 */
+	public RepositoryStatus(File directory, String branch, int commitsAhead, int commitsBehind, long lastFetchTime, String error, long duration, List<BranchStatus> branches, boolean stale, String remoteError, WorkingTreeStatus workingTree) {
+		this.directory = directory;
+		this.branch = branch;
+		this.commitsAhead = commitsAhead;
+		this.commitsBehind = commitsBehind;
+		this.lastFetchTime = lastFetchTime;
+		this.error = error;
+		this.duration = duration;
+		this.branches = Collections.unmodifiableList(new ArrayList<>(branches));
+		this.stale = stale;
+		this.remoteError = remoteError;
+		this.workingTree = workingTree;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return Name of the repository working directory
+	 */
+	public String getName() {
+		File parent = directory.getParentFile();
+		return (parent != null) ? parent.getName() : directory.getName();
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public int getCommitsAhead() {
+		return commitsAhead;
+	}
+
+	public int getCommitsBehind() {
+		return commitsBehind;
+	}
+
+	public long getLastFetchTime() {
+		return lastFetchTime;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean isError() {
+		return error != null;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return Status of each monitored branch
+	 */
+	public List<BranchStatus> getBranches() {
+		return branches;
+	}
+
+	/**
+	 * @return Status of the current branch, or null if it has no upstream or was not compared
+	 */
+	public BranchStatus getCurrentBranch() {
+		for(BranchStatus status : branches) {
+			if(status.getBranch().equals(branch)) {
+				return status;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return True if the status was restored from a previous session and not yet updated
+	 */
+	public boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * @return Description of the failure to fetch the remote, or null if the last fetch succeeded
+	 */
+	public String getRemoteError() {
+		return remoteError;
+	}
+
+	/**
+	 * @return True if the remote could not be fetched, and the status was
+	 *         determined from the existing remote tracking refs
+	 */
+	public boolean isRemoteError() {
+		return remoteError != null;
+	}
+
+	/**
+	 * @return Uncommitted changes in the working tree, or null if not checked
+	 */
+	public WorkingTreeStatus getWorkingTree() {
+		return workingTree;
+	}
+
+	/**
+	 * @return True if the working tree has modified or untracked files
+	 */
+	public boolean isDirty() {
+		return workingTree != null && workingTree.isDirty();
+	}
+
+	/**
+	 * Get how old the remote tracking refs are.
+	 *
+	 * @param now The current time
+	 * @return Time since the remote was last fetched in milliseconds, or -1 if never
+	 */
+	public long getRemoteAge(long now) {
+		return (lastFetchTime > 0) ? Math.max(0, now - lastFetchTime) : -1;
+	}
+
+	/**
+	 * @return The status derived from the error and the number of commits ahead and behind
+	 */
+	public RepoStatus getStatus() {
+		if(error != null) {
+			return RepoStatus.ERROR;
+		} else if(commitsAhead > 0 && commitsBehind > 0) {
+			return RepoStatus.DIVERGE;
+		} else if(commitsAhead > 0) {
+			return RepoStatus.AHEAD;
+		} else if(commitsBehind > 0) {
+			return RepoStatus.BEHIND;
+		}
+		return RepoStatus.SYNC;
+	}
+
+	@Override
+	public String toString() {
+		return "RepositoryStatus[" + getName() + ", " + branch + ", " + getStatus() + ", ahead=" + commitsAhead + ", behind=" + commitsBehind + (stale ? ", stale" : "") + ((remoteError != null) ? ", remote error" : "") + (isDirty() ? ", dirty" : "") + "]";
+	}
+}
@@ -0,0 +1,172 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Store the status of the monitored repositories between sessions.
+ *
+ * The status of each repository, including the branch tips that were
+ * compared, is written in a compact binary format so that it can be
+ * shown immediately on startup, before the first fetch has completed.
+ * Restored statuses are marked as stale.
+ */
+public class RepositoryStatusStore {
+
+	private static final int MAGIC = 0x52534E50; // 'RSNP'
+
+	private static final int VERSION = 1;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private File file;
+
+	/**
+	 * @param file The file in which the statuses are stored
+	 */
+	public RepositoryStatusStore(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Write the given statuses, replacing any previously stored statuses.
+	 *
+	 * @param statuses The statuses to store
+	 * @throws IOException If the file can not be written
+	 */
+	public synchronized void save(Collection<RepositoryStatus> statuses) throws IOException {
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(statuses.size());
+			for(RepositoryStatus status : statuses) {
+				writeStatus(out, status);
+			}
+		} finally {
+			out.close();
+		}
+		if(!temp.renameTo(file)) {
+			// Rename does not replace an existing file on all platforms.
+			if(!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Unable to replace repository status file: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Read the stored statuses.
+	 *
+	 * @return The stored statuses marked as stale, or an empty list if there are none
+	 * @throws IOException If the file can not be read or is not valid
+	 */
+	public List<RepositoryStatus> load() throws IOException {
+		List<RepositoryStatus> statuses = new ArrayList<>();
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch(FileNotFoundException e) {
+			return statuses;
+		}
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported repository status file: " + file);
+			}
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				statuses.add(readStatus(in));
+			}
+		} catch(EOFException e) {
+			throw new IOException("Truncated repository status file: " + file, e);
+		} finally {
+			in.close();
+		}
+		return statuses;
+	}
+
+	protected void writeStatus(DataOutputStream out, RepositoryStatus status) throws IOException {
+		out.writeUTF(status.getDirectory().getPath());
+		writeString(out, status.getBranch());
+		out.writeInt(status.getCommitsAhead());
+		out.writeInt(status.getCommitsBehind());
+		out.writeLong(status.getLastFetchTime());
+		writeString(out, status.getError());
+		out.writeLong(status.getDuration());
+		out.writeInt(status.getBranches().size());
+		for(BranchStatus branch : status.getBranches()) {
+			out.writeUTF(branch.getBranch());
+			out.writeUTF(branch.getUpstream());
+			out.writeInt(branch.getCommitsAhead());
+			out.writeInt(branch.getCommitsBehind());
+			out.writeBoolean(branch.hasMergeBase());
+			writeObjectId(out, branch.getLocalId());
+			writeObjectId(out, branch.getRemoteId());
+		}
+	}
+
+	protected RepositoryStatus readStatus(DataInputStream in) throws IOException {
+		File directory = new File(in.readUTF());
+		String branch = readString(in);
+		int commitsAhead = in.readInt();
+		int commitsBehind = in.readInt();
+		long lastFetchTime = in.readLong();
+		String error = readString(in);
+		long duration = in.readLong();
+		int count = in.readInt();
+		List<BranchStatus> branches = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			String upstream = in.readUTF();
+			int ahead = in.readInt();
+			int behind = in.readInt();
+			boolean mergeBase = in.readBoolean();
+			ObjectId localId = readObjectId(in);
+			ObjectId remoteId = readObjectId(in);
+			branches.add(new BranchStatus(name, upstream, ahead, behind, mergeBase, localId, remoteId));
+		}
+		return new RepositoryStatus(directory, branch, commitsAhead, commitsBehind,
+				lastFetchTime, error, duration, branches, true, null, null);
+	}
+
+	protected void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	protected String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	protected void writeObjectId(DataOutputStream out, ObjectId id) throws IOException {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		id.copyRawTo(raw, 0);
+		out.write(raw);
+	}
+
+	protected ObjectId readObjectId(DataInputStream in) throws IOException {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(raw);
+		return ObjectId.fromRaw(raw);
+	}
+}
@@ -0,0 +1,749 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.csstudio.team.repomonitor.core.MonitorMetrics.RepositoryMetrics;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Fetch a repository and compare its branches with their upstream branches.
+ *
+ * An updater is used for one repository, and can be run again to update
+ * it again, but not concurrently.
+ *
+ * The update stops as soon as possible when the progress monitor is
+ * canceled, when {@link #cancel()} is called or when the deadline passes,
+ * including during the fetch and the counting of commits. A canceled
+ * update does not produce a status, so the previous status is kept.
+ */
+public class RepositoryUpdater {
+
+	private static final String PACK_DIRECTORY = "objects" + File.separator + "pack";
+	
+	private static final String PACK_SUFFIX = ".pack";
+	
+	/**
+	 * Maximum number of commits added to the commit graph index during an
+	 * update, larger histories are indexed in the background.
+	 */
+	public static final int MAX_INDEXED_COMMITS = 1000;
+
+	private RepositoryMonitor monitor;
+	
+	private Repository repository;
+	
+	private boolean fetch;
+	
+	private String branch;
+	
+	private int commitsAhead;
+	
+	private int commitsBehind;
+	
+	private long fetchTime;
+	
+	private boolean remoteChanged;
+	
+	private MonitorException fetchFailure;
+	
+	private WorkingTreeStatus workingTree;
+	
+	private ObjectReader reader;
+	
+	private List<BranchStatus> branches = new ArrayList<>();
+	
+	private volatile RepositoryStatus repositoryStatus;
+	
+	private volatile MonitorException exception;
+	
+	private volatile boolean canceled;
+	
+	private volatile boolean cancelRequested = false;
+	
+	private volatile CancelableProgressMonitor progress;
+	
+	private long deadline = 0;
+	
+	private RepositoryMetrics metrics;
+	
+	/**
+	 * @param monitor The monitor that provides the settings, caches and metrics
+	 * @param repository The repository to update
+	 * @param fetch True to fetch from the remote, false to only compare the local refs
+	 */
+	public RepositoryUpdater(RepositoryMonitor monitor, Repository repository, boolean fetch) {
+		this.monitor = monitor;
+		this.repository = repository;
+		this.fetch = fetch;
+	}
+	
+	public Repository getRepository() {
+		return repository;
+	}
+
+	/**
+	 * @return The repository (.git) directory
+	 */
+	public File getRepositoryDirectory() {
+		return repository.getDirectory();
+	}
+	
+	/**
+	 * @return Name of the repository working directory
+	 */
+	public String getRepositoryName() {
+		return repository.getDirectory().getParentFile().getName();
+	}
+	
+	/**
+	 * @return True if the remote is fetched, false if only the local refs are compared
+	 */
+	public boolean isFetch() {
+		return fetch;
+	}
+	
+	/**
+	 * Get the host name of the remote repository.
+	 * 
+	 * @return The host name or null if the remote is local or not configured
+	 */
+	public String getRemoteHost() {
+		String remote;
+		try {
+			remote = getRemote(getUpstream(repository.getBranch()));
+		} catch(IOException e) {
+			remote = Constants.DEFAULT_REMOTE_NAME;
+		}
+		String url = repository.getConfig().getString(ConfigConstants.CONFIG_REMOTE_SECTION,
+				remote, ConfigConstants.CONFIG_KEY_URL);
+		if(url == null) {
+			return null;
+		}
+		try {
+			return new URIish(url).getHost();
+		} catch(URISyntaxException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Get the status of the repository determined by the last update.
+	 * 
+	 * @return The repository status, or an error status if the update has not completed
+	 */
+	public RepositoryStatus getRepositoryStatus() {
+		RepositoryStatus status = repositoryStatus;
+		if(status == null) {
+			status = new RepositoryStatus(repository.getDirectory(), branch, 0, 0,
+					getPreviousFetchTime(), "Fetch repository job did not complete", 0,
+					Collections.<BranchStatus>emptyList(), false, null, null);
+		}
+		return status;
+	}
+	
+	/**
+	 * @return The failure of the last update, or null if it succeeded
+	 */
+	public MonitorException getException() {
+		return exception;
+	}
+	
+	/**
+	 * @return True if the last update was canceled before it completed
+	 */
+	public boolean isCanceled() {
+		return canceled;
+	}
+	
+	/**
+	 * Request the update to stop as soon as possible. The updater
+	 * can not be used again after it has been canceled.
+	 */
+	public void cancel() {
+		cancelRequested = true;
+		CancelableProgressMonitor p = progress;
+		if(p != null) {
+			p.cancel();
+		}
+	}
+	
+	/**
+	 * Set the time after which the update is canceled.
+	 * 
+	 * @param deadline Time from {@link System#nanoTime()} (zero for no deadline)
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * @return True if the last update completed without errors or warnings, including the fetch
+	 */
+	public boolean isSuccess() {
+		return repositoryStatus != null && exception == null && fetchFailure == null;
+	}
+	
+	/**
+	 * @return True if the last fetch updated any remote tracking refs
+	 */
+	public boolean isRemoteChanged() {
+		return remoteChanged;
+	}
+	
+	protected long getPreviousFetchTime() {
+		RepositoryStatus previous = monitor.getRepositoryStatus(repository.getDirectory());
+		return (previous != null) ? previous.getLastFetchTime() : 0;
+	}
+	
+	/**
+	 * Get the time the remote tracking refs were last fetched, when they were
+	 * not fetched by this update, including fetches done outside the monitor
+	 * (ie from the command line), which write the FETCH_HEAD file.
+	 */
+	protected long getLastFetchTime() {
+		return Math.max(getPreviousFetchTime(), new File(repository.getDirectory(), Constants.FETCH_HEAD).lastModified());
+	}
+	
+	/**
+	 * Get the failure to fetch the remote, or for local refreshes, the
+	 * failure of the previous fetch, since the remote has not been fetched since.
+	 */
+	protected String getRemoteError() {
+		if(fetchFailure != null) {
+			return fetchFailure.getMessage();
+		}
+		if(fetch && !monitor.getSettings().isOffline()) {
+			return null;
+		}
+		RepositoryStatus previous = monitor.getRepositoryStatus(repository.getDirectory());
+		return (previous != null) ? previous.getRemoteError() : null;
+	}
+	
+	protected Upstream getUpstream(String branch) {
+		try {
+			return monitor.getUpstreamResolver().resolve(repository, branch);
+		} catch(IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The remote of the upstream or the default remote if there is no upstream
+	 */
+	protected String getRemote(Upstream upstream) {
+		return (upstream != null) ? upstream.getRemote() : Constants.DEFAULT_REMOTE_NAME;
+	}
+	
+	protected String getTrackingBranch() {
+		try {
+			return repository.getFullBranch();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Check if the fetch should be executed.
+	 * 
+	 * If probing is enabled, then the remote refs are listed and the fetch
+	 * is only needed if they differ from the local remote tracking refs.
+	 * If the probe fails, then the fetch is executed anyway so that the
+	 * error is reported in the usual way. The probe is limited by the same
+	 * timeout as the fetch.
+	 * 
+	 * @throws MonitorException If the update is canceled before or during the probe
+	 */
+	protected boolean shouldFetch(String remote, List<RefSpec> refSpecs, MonitorSettings settings, ProgressMonitor progress) throws MonitorException {
+		if(!settings.isProbeRemote()) {
+			return true;
+		}
+		checkCanceled(progress);
+		RemoteRefProbe probe = new RemoteRefProbe(repository, remote);
+		probe.setTimeout(getFetchTimeout(settings));
+		boolean changes;
+		try {
+			changes = (refSpecs != null) ? probe.hasChanges(refSpecs) : probe.hasChanges();
+		} catch(GitAPIException | JGitInternalException | URISyntaxException | IOException e) {
+			changes = true;
+		}
+		checkCanceled(progress);
+		return changes;
+	}
+	
+	/**
+	 * Update the status of the repository.
+	 * 
+	 * @param progressMonitor Progress monitor, two units of work
+	 * @return The new status of the repository, which has an error message if the update
+	 *         failed, or did not complete if the update was canceled (see {@link #isCanceled()})
+	 */
+	public RepositoryStatus update(ProgressMonitor progressMonitor) {
+		CancelableProgressMonitor progress = new CancelableProgressMonitor(progressMonitor, deadline);
+		this.progress = progress;
+		if(cancelRequested) {
+			progress.cancel();
+		}
+		long start = System.currentTimeMillis();
+		branch = null;
+		commitsAhead = 0;
+		commitsBehind = 0;
+		fetchTime = 0;
+		remoteChanged = false;
+		fetchFailure = null;
+		workingTree = null;
+		branches.clear();
+		metrics = monitor.getMetrics().getRepositoryMetrics(repository.getDirectory());
+		MonitorException failure = null;
+		MemoryBudget memoryBudget = monitor.getMemoryBudget();
+		memoryBudget.acquire(repository.getDirectory());
+		// All walks of the update share the same reader.
+		reader = repository.newObjectReader();
+		try {
+			update(progress, monitor.getSettings());
+		} catch(MonitorException e) {
+			// Without remote tracking refs, the failure to fetch is the cause.
+			failure = (fetchFailure != null && !e.isWarning()) ? fetchFailure : e;
+		} finally {
+			reader.release();
+			reader = null;
+			memoryBudget.release(repository.getDirectory());
+			memoryBudget.trim();
+		}
+		canceled = (failure != null) && progress.isCancelled();
+		exception = failure;
+		if(canceled) {
+			repositoryStatus = null;
+			progress.endTask();
+			return getRepositoryStatus();
+		}
+		long duration = System.currentTimeMillis() - start;
+		long lastFetchTime = (fetchTime > 0) ? fetchTime : getLastFetchTime();
+		String remoteError = getRemoteError();
+		if(failure == null) {
+			repositoryStatus = new RepositoryStatus(repository.getDirectory(), branch,
+					commitsAhead, commitsBehind, lastFetchTime, null, duration, branches, false, remoteError, workingTree);
+		} else {
+			repositoryStatus = new RepositoryStatus(repository.getDirectory(), branch,
+					0, 0, lastFetchTime, failure.getMessage(), duration, branches, false, remoteError, workingTree);
+		}
+		progress.endTask();
+		return repositoryStatus;
+	}
+	
+	/**
+	 * Fetch the repository and compare the tracking branch with the remote branch.
+	 * 
+	 * If all branches are monitored, then every local branch with a configured
+	 * upstream is compared as well, all using the same commit walk.
+	 */
+	protected void update(CancelableProgressMonitor progress, MonitorSettings settings) throws MonitorException {
+		
+		progress.beginTask("Fetch Repository", 2);
+		
+		checkCanceled(progress);
+		
+		long resolveStart = System.nanoTime();
+		long resolveTime = 0;
+		long countTime = 0;
+		
+		String trackingBranch = getTrackingBranch();
+		if(trackingBranch == null) {
+			throw new MonitorException("Error while getting tracking branch name");
+		}
+		
+		branch = Repository.shortenRefName(trackingBranch);
+		
+		boolean allBranches = settings.isMonitorAllBranches();
+		
+		Map<String,Ref> localRefs = null;
+		if(allBranches) {
+			try {
+				localRefs = repository.getRefDatabase().getRefs(Constants.R_HEADS);
+			} catch(IOException e) {
+				throw new MonitorException("Error while reading branch references", e);
+			}
+		}
+		
+		UpstreamResolver upstreamResolver = monitor.getUpstreamResolver();
+		
+		Upstream upstream = getUpstream(branch);
+		
+		Map<String,Upstream> otherUpstreams = new LinkedHashMap<>();
+		if(localRefs != null) {
+			for(String name : localRefs.keySet()) {
+				if(!name.equals(branch)) {
+					Upstream other = upstreamResolver.resolveConfigured(repository, name);
+					if(other != null) {
+						otherUpstreams.put(name, other);
+					}
+				}
+			}
+		}
+		
+		Map<String,List<RefSpec>> remotes = new LinkedHashMap<>();
+		addFetchRefSpec(remotes, getRemote(upstream), upstream, settings);
+		for(Upstream other : otherUpstreams.values()) {
+			addFetchRefSpec(remotes, other.getRemote(), other, settings);
+		}
+		
+		resolveTime += System.nanoTime() - resolveStart;
+		
+		// Local refreshes, and branches with a local upstream, are not fetched.
+		// If the remote can not be fetched, then the status is determined from
+		// the existing remote tracking refs, and the failure is reported with it.
+		if(fetch && !settings.isOffline()) {
+			for(Map.Entry<String,List<RefSpec>> remote : remotes.entrySet()) {
+				if(!Upstream.LOCAL_REMOTE.equals(remote.getKey())) {
+					checkCanceled(progress);
+					try {
+						fetch(remote.getKey(), remote.getValue(), settings, progress);
+					} catch(MonitorException e) {
+						checkCanceled(progress);
+						fetchFailure = e;
+					}
+				}
+			}
+		}
+		
+		progress.update(1);
+		
+		checkCanceled(progress);
+		
+		resolveStart = System.nanoTime();
+		
+		if(upstream == null) {
+			// The remote tracking ref may have just been created by the fetch.
+			upstream = getUpstream(branch);
+			if(upstream == null && (!allBranches || otherUpstreams.isEmpty())) {
+				throw new MonitorException("Error while getting remote branch name");
+			}
+		}
+		
+		Map<String,Upstream> upstreams = new LinkedHashMap<>();
+		if(upstream != null) {
+			upstreams.put(branch, upstream);
+		}
+		upstreams.putAll(otherUpstreams);
+		
+		AheadBehindCache aheadBehindCache = monitor.getAheadBehindCache();
+		boolean mergeBase = true;
+		AheadBehindCounter counter = null;
+		try {
+			Map<String,Ref> remoteRefs = null;
+			if(allBranches) {
+				remoteRefs = repository.getRefDatabase().getRefs(Constants.R_REMOTES);
+			}
+			
+			for(Map.Entry<String,Upstream> entry : upstreams.entrySet()) {
+				checkCanceled(progress);
+				boolean current = entry.getKey().equals(branch);
+				String localBranch = Constants.R_HEADS + entry.getKey();
+				String remoteBranch = entry.getValue().getTrackingRef();
+				
+				Ref localRef = getRef(localBranch, localRefs, remoteRefs);
+				Ref remoteRef = getRef(remoteBranch, localRefs, remoteRefs);
+				
+				if(remoteRef == null || remoteRef.getObjectId() == null) {
+					if(current) {
+						throw new MonitorException("No reference found for branch: " + remoteBranch);
+					}
+					continue;
+				}
+				
+				if(localRef == null || localRef.getObjectId() == null) {
+					if(current) {
+						throw new MonitorException("No reference found for branch: " + localBranch);
+					}
+					continue;
+				}
+				
+				long countStart = System.nanoTime();
+				AheadBehind aheadBehind = aheadBehindCache.getCached(repository, localBranch, localRef.getObjectId(), remoteRef.getObjectId());
+				if(aheadBehind == null && settings.isUseCommitGraph()) {
+					aheadBehind = countIndexed(localRef.getObjectId(), remoteRef.getObjectId(), progress);
+					if(aheadBehind != null) {
+						aheadBehindCache.put(repository.getDirectory(), localBranch, aheadBehind);
+					}
+				}
+				if(aheadBehind == null) {
+					if(counter == null) {
+						counter = new AheadBehindCounter(reader);
+						counter.setProgressMonitor(progress);
+					}
+					aheadBehind = aheadBehindCache.get(repository, localBranch, localRef.getObjectId(), remoteRef.getObjectId(), counter);
+				}
+				countTime += System.nanoTime() - countStart;
+				
+				branches.add(new BranchStatus(entry.getKey(), remoteBranch,
+						aheadBehind.getAhead(), aheadBehind.getBehind(), aheadBehind.hasMergeBase(),
+						aheadBehind.getLocalId(), aheadBehind.getRemoteId()));
+				
+				if(aheadBehind.hasMergeBase()) {
+					commitsAhead += aheadBehind.getAhead();
+					commitsBehind += aheadBehind.getBehind();
+				} else if(current) {
+					mergeBase = false;
+				}
+			}
+		} catch(IOException e) {
+			throw new MonitorException("Error while comparing remote branch and tracking branch", e);
+		} finally {
+			if(counter != null) {
+				counter.release();
+			}
+		}
+		
+		if(allBranches) {
+			List<String> localBranches = new ArrayList<>();
+			for(String name : localRefs.keySet()) {
+				localBranches.add(Constants.R_HEADS + name);
+			}
+			aheadBehindCache.retainBranches(repository, localBranches);
+		}
+		
+		resolveTime += (System.nanoTime() - resolveStart) - countTime;
+		metrics.recordResolve(resolveTime / 1000);
+		metrics.recordCount(countTime / 1000);
+		
+		if(settings.isCheckWorkingTree() && !repository.isBare()) {
+			workingTree = scanWorkingTree(progress);
+		}
+		
+		progress.update(1);
+		
+		if(!mergeBase) {
+			throw new MonitorException("Remote branch and tracking branch have no common ancestor.", null, true);
+		}
+	}
+	
+	/**
+	 * Find the uncommitted changes in the working tree.
+	 * 
+	 * Fetch updates, which are infrequent, scan the whole working tree. Local
+	 * refreshes only scan the paths changed since the last scan, if the changed
+	 * paths are reported to the monitor. A failure to scan the working tree
+	 * does not fail the update, the working tree status is then unknown.
+	 */
+	protected WorkingTreeStatus scanWorkingTree(ProgressMonitor progress) throws MonitorException {
+		boolean full = fetch || !monitor.isTrackingChanges();
+		long scanStart = System.nanoTime();
+		try {
+			return monitor.getWorkingTreeScanner().scan(repository, reader, full, progress);
+		} catch(IOException e) {
+			checkCanceled(progress);
+			return null;
+		} finally {
+			metrics.recordScan((System.nanoTime() - scanStart) / 1000);
+		}
+	}
+	
+	/**
+	 * Count the commits ahead and behind with the commit graph index of the
+	 * repository, first adding any new commits of the branch tips to the index.
+	 * If too many commits are new, such as for the first count, the index is
+	 * built in the background and the commits are counted by walking them.
+	 * 
+	 * @return The ahead and behind counts, or null if the index can not be used
+	 *         (ie missing objects or not yet built), so that the commits are counted by walking them
+	 */
+	protected AheadBehind countIndexed(ObjectId localId, ObjectId remoteId, ProgressMonitor progress) throws IOException {
+		if(monitor.isCommitGraphPending(repository.getDirectory())) {
+			return null;
+		}
+		CommitGraph graph = monitor.getCommitGraphCache().get(repository);
+		try {
+			if(graph.update(reader, progress, MAX_INDEXED_COMMITS, localId, remoteId) < 0) {
+				monitor.updateCommitGraph(repository, localId, remoteId);
+				return null;
+			}
+		} catch(InterruptedIOException e) {
+			throw e;
+		} catch(IOException e) {
+			return null;
+		}
+		return graph.count(localId, remoteId, progress);
+	}
+	
+	protected void checkCanceled(ProgressMonitor progress) throws MonitorException {
+		if(progress.isCancelled()) {
+			throw new MonitorException("Repository update canceled");
+		}
+	}
+	
+	/**
+	 * Add the ref spec needed to fetch the upstream to the ref specs of the remote.
+	 * 
+	 * The ref specs of a remote are null if the configured ref specs must be used,
+	 * either because narrow fetching is disabled or because the upstream is unknown.
+	 */
+	protected void addFetchRefSpec(Map<String,List<RefSpec>> remotes, String remote, Upstream upstream, MonitorSettings settings) {
+		if(!remotes.containsKey(remote)) {
+			remotes.put(remote, new ArrayList<RefSpec>());
+		}
+		List<RefSpec> refSpecs = remotes.get(remote);
+		if(upstream == null || !settings.isNarrowFetch()) {
+			remotes.put(remote, null);
+		} else if(refSpecs != null) {
+			refSpecs.add(new RefSpec().setForceUpdate(true)
+					.setSourceDestination(upstream.getMergeRef(), upstream.getTrackingRef()));
+		}
+	}
+	
+	/**
+	 * Fetch from the given remote, unless the probe finds no changes.
+	 * 
+	 * If the same remote is already being fetched into this repository, or was
+	 * fetched within the result TTL, then the result of that fetch is used.
+	 * 
+	 * @param remote Name of the remote
+	 * @param refSpecs The ref specs to fetch, or null to use the configured ref specs
+	 * @param progress Progress monitor, checked by JGit for cancellation during the transfer
+	 */
+	protected void fetch(String remote, List<RefSpec> refSpecs, MonitorSettings settings, ProgressMonitor progress) throws MonitorException {
+		String url = repository.getConfig().getString(ConfigConstants.CONFIG_REMOTE_SECTION,
+				remote, ConfigConstants.CONFIG_KEY_URL);
+		String options = ((refSpecs != null) ? refSpecs.toString() : "") + (settings.isFetchTags() ? "" : "#notags");
+		String key = FetchRegistry.getKey(repository.getDirectory(), (url != null) ? url : remote, options);
+		FetchResult result = monitor.getFetchRegistry().fetch(key, new FetchCallable(remote, refSpecs, settings, progress), progress);
+		if(result != null) {
+			remoteChanged |= !result.getTrackingRefUpdates().isEmpty();
+		}
+		fetchTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Record a failed fetch, unless it failed because it was canceled.
+	 */
+	protected void recordFetchFailure(long fetchStart, ProgressMonitor progress) {
+		if(!progress.isCancelled()) {
+			metrics.recordFetch((System.nanoTime() - fetchStart) / 1000, 0, false);
+		}
+	}
+	
+	/**
+	 * Get the timeout of the fetch in seconds, limited by the time left before the deadline.
+	 * 
+	 * @return The timeout, at least one second, or zero if there is no timeout and no deadline
+	 * @throws MonitorException If the deadline has passed, so the fetch must not be started
+	 */
+	protected int getFetchTimeout(MonitorSettings settings) throws MonitorException {
+		long timeout = settings.getFetchTimeout();
+		if(deadline != 0) {
+			long remaining = (deadline - System.nanoTime()) / 1000000;
+			if(remaining <= 0) {
+				// JGit treats a zero timeout as no timeout.
+				throw new MonitorException("Repository update canceled");
+			}
+			timeout = (timeout > 0) ? Math.min(timeout, remaining) : remaining;
+		}
+		return (timeout > 0) ? (int) Math.max(1, timeout / 1000) : 0;
+	}
+	
+	/**
+	 * Get the total size of the pack files of the repository, used to
+	 * estimate the number of bytes received by a fetch.
+	 */
+	protected long getPackSize() {
+		File[] files = new File(repository.getDirectory(), PACK_DIRECTORY).listFiles();
+		long size = 0;
+		if(files != null) {
+			for(File file : files) {
+				if(file.getName().endsWith(PACK_SUFFIX)) {
+					size += file.length();
+				}
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * Get a ref from the maps of local and remote refs if available, otherwise from the repository.
+	 */
+	protected Ref getRef(String name, Map<String,Ref> localRefs, Map<String,Ref> remoteRefs) throws IOException {
+		if(localRefs != null && name.startsWith(Constants.R_HEADS)) {
+			return localRefs.get(name.substring(Constants.R_HEADS.length()));
+		}
+		if(remoteRefs != null && name.startsWith(Constants.R_REMOTES)) {
+			return remoteRefs.get(name.substring(Constants.R_REMOTES.length()));
+		}
+		return repository.getRef(name);
+	}
+	
+	/**
+	 * Fetch from a remote, the result is null if the probe finds no changes.
+	 */
+	protected class FetchCallable implements Callable<FetchResult> {
+		
+		private final String remote;
+		
+		private final List<RefSpec> refSpecs;
+		
+		private final MonitorSettings settings;
+		
+		private final ProgressMonitor progress;
+		
+		public FetchCallable(String remote, List<RefSpec> refSpecs, MonitorSettings settings, ProgressMonitor progress) {
+			this.remote = remote;
+			this.refSpecs = refSpecs;
+			this.settings = settings;
+			this.progress = progress;
+		}
+		
+		@Override
+		public FetchResult call() throws MonitorException {
+			if(!shouldFetch(remote, refSpecs, settings, progress)) {
+				return null;
+			}
+			FetchCommand cmd = Git.wrap(repository).fetch();
+			cmd.setRemote(remote);
+			cmd.setTimeout(getFetchTimeout(settings));
+			cmd.setProgressMonitor(progress);
+			if(refSpecs != null) {
+				cmd.setRefSpecs(refSpecs);
+			}
+			if(!settings.isFetchTags()) {
+				cmd.setTagOpt(TagOpt.NO_TAGS);
+			}
+			// Enabling a 'dry-run' is broken;
+			// an actual fetch is executed instead.
+			// cmd.setDryRun(true);
+			long packSize = getPackSize();
+			long fetchStart = System.nanoTime();
+			FetchResult result;
+			try {
+				result = cmd.call();
+			} catch(GitAPIException e) {
+				recordFetchFailure(fetchStart, progress);
+				throw new MonitorException("Error while executing 'fetch' commannd", e);
+			} catch(JGitInternalException e) {
+				recordFetchFailure(fetchStart, progress);
+				throw new MonitorException("Exception while executing 'fetch' commannd", e);
+			}
+			metrics.recordFetch((System.nanoTime() - fetchStart) / 1000, Math.max(0, getPackSize() - packSize), true);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Immutable description of the upstream of a local branch.
+ */
+public class Upstream {
+
+	/**
+	 * Remote name used in the branch configuration for a local upstream branch.
+	 */
+	public static final String LOCAL_REMOTE = ".";
+
+	private final String remote;
+
+	private final String mergeRef;
+
+	private final String trackingRef;
+
+	/**
+	 * @param remote Name of the remote (ie 'origin')
+	 * @param mergeRef Name of the branch on the remote (ie 'refs/heads/master')
+	 * @param trackingRef Name of the local remote tracking ref (ie 'refs/remotes/origin/master')
+	 */
+	public Upstream(String remote, String mergeRef, String trackingRef) {
+		this.remote = remote;
+		this.mergeRef = mergeRef;
+		this.trackingRef = trackingRef;
+	}
+
+	public String getRemote() {
+		return remote;
+	}
+
+	public String getMergeRef() {
+		return mergeRef;
+	}
+
+	public String getTrackingRef() {
+		return trackingRef;
+	}
+
+	/**
+	 * @return True if the upstream is another branch in the local repository
+	 */
+	public boolean isLocal() {
+		return LOCAL_REMOTE.equals(remote);
+	}
+
+	@Override
+	public String toString() {
+		return "Upstream[" + remote + ", " + mergeRef + ", " + trackingRef + "]";
+	}
+}
@@ -0,0 +1,169 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+
+/**
+ * Resolve the upstream of a local branch.
+ *
+ * The upstream is read from the 'branch.&lt;name&gt;.remote' and
+ * 'branch.&lt;name&gt;.merge' configuration and mapped to a remote tracking
+ * ref through the fetch ref specs of the remote. If the branch has no
+ * upstream configured, then a remote tracking ref with the same name as the
+ * branch is looked up in each remote, starting with 'origin'. Only these
+ * specific refs are read, never the complete list of refs.
+ *
+ * Results from the configuration are cached for each branch until the
+ * repository configuration file is modified.
+ */
+public class UpstreamResolver implements IRepositoryCache {
+
+	private static final String CONFIG_FILE = "config";
+
+	/**
+	 * Estimated size of a cached upstream, including its key.
+	 */
+	private static final long ENTRY_SIZE = 320;
+
+	private Map<String,CacheEntry> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Resolve the upstream of the given branch.
+	 *
+	 * @param repository The repository containing the branch
+	 * @param branch Short name of the local branch (ie 'master')
+	 * @return The upstream, or null if none is found
+	 * @throws IOException If a ref can not be read
+	 */
+	public Upstream resolve(Repository repository, String branch) throws IOException {
+		Upstream upstream = resolveConfigured(repository, branch);
+		if(upstream != null) {
+			return upstream;
+		}
+		return resolveFromRefs(repository, repository.getConfig(), branch);
+	}
+
+	/**
+	 * Resolve the upstream of the given branch from the configuration only.
+	 *
+	 * @param repository The repository containing the branch
+	 * @param branch Short name of the local branch (ie 'master')
+	 * @return The upstream, or null if none is configured
+	 */
+	public Upstream resolveConfigured(Repository repository, String branch) {
+		String key = getKey(repository.getDirectory()) + branch;
+		long configModified = new File(repository.getDirectory(), CONFIG_FILE).lastModified();
+
+		CacheEntry entry = cache.get(key);
+		if(entry != null && entry.configModified == configModified) {
+			return entry.upstream;
+		}
+
+		Upstream upstream = resolveFromConfig(repository.getConfig(), branch);
+		if(upstream != null) {
+			cache.put(key, new CacheEntry(configModified, upstream));
+		} else {
+			cache.remove(key);
+		}
+		return upstream;
+	}
+
+	/**
+	 * Remove all cached results.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public long getMemoryUsage(File directory) {
+		String prefix = getKey(directory);
+		long usage = 0;
+		for(String key : cache.keySet()) {
+			if(key.startsWith(prefix)) {
+				usage += ENTRY_SIZE;
+			}
+		}
+		return usage;
+	}
+
+	@Override
+	public void evict(File directory) {
+		String prefix = getKey(directory);
+		for(String key : cache.keySet()) {
+			if(key.startsWith(prefix)) {
+				cache.remove(key);
+			}
+		}
+	}
+
+	protected String getKey(File directory) {
+		return directory.getAbsolutePath() + "#";
+	}
+
+	protected Upstream resolveFromConfig(Config config, String branch) {
+		String remote = config.getString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_REMOTE);
+		String merge = config.getString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_MERGE);
+		if(remote == null || merge == null) {
+			return null;
+		}
+
+		if(Upstream.LOCAL_REMOTE.equals(remote)) {
+			return new Upstream(remote, merge, merge);
+		}
+
+		try {
+			RemoteConfig remoteConfig = new RemoteConfig(config, remote);
+			for(RefSpec refSpec : remoteConfig.getFetchRefSpecs()) {
+				if(refSpec.matchSource(merge)) {
+					String destination = refSpec.expandFromSource(merge).getDestination();
+					if(destination != null) {
+						return new Upstream(remote, merge, destination);
+					}
+				}
+			}
+		} catch(URISyntaxException e) {
+			// Use the default remote tracking ref name. //
+		}
+
+		return new Upstream(remote, merge, Constants.R_REMOTES + remote + "/" + Repository.shortenRefName(merge));
+	}
+
+	protected Upstream resolveFromRefs(Repository repository, Config config, String branch) throws IOException {
+		List<String> remotes = new ArrayList<>(config.getSubsections(ConfigConstants.CONFIG_REMOTE_SECTION));
+		if(remotes.remove(Constants.DEFAULT_REMOTE_NAME)) {
+			remotes.add(0, Constants.DEFAULT_REMOTE_NAME);
+		}
+		for(String remote : remotes) {
+			String trackingRef = Constants.R_REMOTES + remote + "/" + branch;
+			if(repository.getRef(trackingRef) != null) {
+				return new Upstream(remote, Constants.R_HEADS + branch, trackingRef);
+			}
+		}
+		return null;
+	}
+
+	protected static class CacheEntry {
+
+		private final long configModified;
+
+		private final Upstream upstream;
+
+		public CacheEntry(long configModified, Upstream upstream) {
+			this.configModified = configModified;
+			this.upstream = upstream;
+		}
+	}
+}
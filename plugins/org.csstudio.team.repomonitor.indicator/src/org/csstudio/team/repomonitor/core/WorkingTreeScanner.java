@@ -0,0 +1,288 @@
+package org.csstudio.team.repomonitor.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Find the uncommitted changes in the working trees of the repositories.
+ *
+ * The working tree is compared with the index and HEAD in a single tree
+ * walk, which uses the file sizes and modification times cached in the
+ * index, so only files whose stat data differs are read. After the first
+ * scan the changed and untracked paths are kept, and only the paths that
+ * have been touched since (see {@link #touch(File, String)}) are walked
+ * again. The whole tree is walked again if the index or HEAD has changed,
+ * or if the caller can not know which paths have been touched.
+ */
+public class WorkingTreeScanner implements IRepositoryCache {
+
+	/**
+	 * Number of touched paths above which the whole tree is walked instead.
+	 */
+	public static final int MAX_TOUCHED_PATHS = 1000;
+
+	private static final int CANCEL_CHECK_INTERVAL = 256;
+
+	/**
+	 * Estimated size of a path kept in the state, not including its characters.
+	 */
+	private static final long PATH_SIZE = 64;
+
+	private static final int HEAD_TREE = 0;
+
+	private static final int INDEX_TREE = 1;
+
+	private static final int WORKING_TREE = 2;
+
+	private Map<File,ScanState> states = new ConcurrentHashMap<>();
+
+	/**
+	 * Record that a path in the working tree may have changed since the last scan.
+	 *
+	 * @param directory The repository (.git) directory
+	 * @param path Path relative to the working tree, or an empty path for the whole tree
+	 */
+	public void touch(File directory, String path) {
+		ScanState state = states.get(directory);
+		if(state != null) {
+			synchronized(state.touched) {
+				state.touched.add(path);
+			}
+		}
+	}
+
+	/**
+	 * Get the uncommitted changes of the repository.
+	 *
+	 * @param repository The repository, which must have a working tree
+	 * @param reader Reader of the repository, which is not released
+	 * @param full True to walk the whole tree, false to walk only the touched paths
+	 * @param progress Progress monitor, checked for cancellation during the walk
+	 * @return The working tree status
+	 * @throws IOException If the index or the working tree can not be read,
+	 *                     or an InterruptedIOException if the scan was canceled
+	 */
+	public WorkingTreeStatus scan(Repository repository, ObjectReader reader, boolean full, ProgressMonitor progress) throws IOException {
+		ScanState state = getState(repository.getDirectory());
+		synchronized(state) {
+			File indexFile = repository.getIndexFile();
+			long indexModified = indexFile.lastModified();
+			long indexLength = indexFile.length();
+			ObjectId head = repository.resolve(Constants.HEAD + "^{tree}");
+
+			Set<String> touched;
+			synchronized(state.touched) {
+				touched = new HashSet<>(state.touched);
+				state.touched.clear();
+			}
+
+			if(state.status == null || indexModified != state.indexModified || indexLength != state.indexLength
+					|| (head != null ? !head.equals(state.head) : state.head != null)
+					|| touched.contains("") || touched.size() > MAX_TOUCHED_PATHS) {
+				full = true;
+			}
+			if(!full && touched.isEmpty()) {
+				return state.status;
+			}
+
+			// Forget the previous results until the scan completes.
+			state.status = null;
+			if(full) {
+				state.modified.clear();
+				state.untracked.clear();
+			} else {
+				retainOutside(state.modified, touched);
+				retainOutside(state.untracked, touched);
+			}
+
+			walk(repository, reader, head, full ? null : touched, state, progress);
+
+			state.indexModified = indexModified;
+			state.indexLength = indexLength;
+			state.head = head;
+			state.status = new WorkingTreeStatus(state.modified.size(), state.untracked.size());
+			state.memoryUsage = getMemoryUsage(state.modified) + getMemoryUsage(state.untracked);
+			return state.status;
+		}
+	}
+
+	/**
+	 * Walk the working tree, index and HEAD, and add the paths that differ to the state.
+	 *
+	 * @param paths The paths to walk, or null to walk the whole tree
+	 */
+	protected void walk(Repository repository, ObjectReader reader, ObjectId head, Collection<String> paths, ScanState state, ProgressMonitor progress) throws IOException {
+		TreeWalk walk = new TreeWalk(reader);
+		walk.setRecursive(true);
+		if(head != null) {
+			walk.addTree(head);
+		} else {
+			walk.addTree(new EmptyTreeIterator());
+		}
+		walk.addTree(new DirCacheIterator(repository.readDirCache()));
+		walk.addTree(new FileTreeIterator(repository));
+		// The index diff filter only compares the index with the working tree.
+		TreeFilter filter = OrTreeFilter.create(new IndexDiffFilter(INDEX_TREE, WORKING_TREE, true),
+				new StagedFilter());
+		if(paths != null) {
+			filter = AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), filter);
+		}
+		walk.setFilter(filter);
+
+		int walked = 0;
+		while(walk.next()) {
+			if(++walked % CANCEL_CHECK_INTERVAL == 0 && progress.isCancelled()) {
+				throw new InterruptedIOException("Working tree scan canceled");
+			}
+			DirCacheIterator index = walk.getTree(INDEX_TREE, DirCacheIterator.class);
+			WorkingTreeIterator working = walk.getTree(WORKING_TREE, WorkingTreeIterator.class);
+			String path = walk.getPathString();
+			if(index == null && walk.getRawMode(HEAD_TREE) == 0) {
+				if(working != null && !working.isEntryIgnored()) {
+					state.untracked.add(path);
+				}
+			} else if(index == null
+					|| walk.getRawMode(HEAD_TREE) != walk.getRawMode(INDEX_TREE)
+					|| !walk.idEqual(HEAD_TREE, INDEX_TREE)
+					|| working == null
+					|| working.isModified(index.getDirCacheEntry(), true)) {
+				state.modified.add(path);
+			}
+		}
+	}
+
+	protected long getMemoryUsage(Set<String> paths) {
+		long usage = 0;
+		for(String path : paths) {
+			usage += PATH_SIZE + 2 * path.length();
+		}
+		return usage;
+	}
+
+	/**
+	 * Remove the paths that are, or are within, any of the touched paths.
+	 */
+	protected void retainOutside(Set<String> paths, Collection<String> touched) {
+		Iterator<String> it = paths.iterator();
+		while(it.hasNext()) {
+			String path = it.next();
+			for(String prefix : touched) {
+				if(path.equals(prefix) || path.startsWith(prefix + "/")) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walk the whole tree of the repository on the next scan.
+	 */
+	public void invalidate(File directory) {
+		touch(directory, "");
+	}
+
+	/**
+	 * Discard the state of the repositories that are not in the given collection.
+	 */
+	public void retainRepositories(Collection<File> directories) {
+		states.keySet().retainAll(directories);
+	}
+
+	@Override
+	public long getMemoryUsage(File directory) {
+		ScanState state = states.get(directory);
+		return (state != null) ? state.memoryUsage : 0;
+	}
+
+	/**
+	 * Discard the state of the repository, so the next scan walks the whole tree.
+	 */
+	@Override
+	public void evict(File directory) {
+		states.remove(directory);
+	}
+
+	/**
+	 * Discard the state of all repositories.
+	 */
+	public void clear() {
+		states.clear();
+	}
+
+	protected synchronized ScanState getState(File directory) {
+		ScanState state = states.get(directory);
+		if(state == null) {
+			state = new ScanState();
+			states.put(directory, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Include the paths that differ between HEAD and the index, the index
+	 * provides the ids of unchanged subtrees so they are not entered.
+	 */
+	protected static class StagedFilter extends TreeFilter {
+
+		@Override
+		public boolean include(TreeWalk walk) {
+			return walk.getRawMode(HEAD_TREE) != walk.getRawMode(INDEX_TREE) || !walk.idEqual(HEAD_TREE, INDEX_TREE);
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+	}
+
+	/**
+	 * The result of the last scan of a repository, and the paths touched since.
+	 */
+	protected static class ScanState {
+
+		private final Set<String> modified = new HashSet<>();
+
+		private final Set<String> untracked = new HashSet<>();
+
+		private final Set<String> touched = new HashSet<>();
+
+		private long indexModified;
+
+		private long indexLength;
+
+		private ObjectId head;
+
+		private WorkingTreeStatus status;
+
+		private volatile long memoryUsage;
+	}
+}
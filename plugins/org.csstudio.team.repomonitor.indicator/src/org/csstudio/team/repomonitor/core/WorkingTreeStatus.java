@@ -0,0 +1,54 @@
+package org.csstudio.team.repomonitor.core;
+
+/**
+ * Immutable summary of the uncommitted changes in the working tree of a repository.
+ */
+public class WorkingTreeStatus {
+
+	private final int modified;
+
+	private final int untracked;
+
+	/**
+	 * @param modified Number of tracked files that are staged, modified or missing
+	 * @param untracked Number of files that are not tracked and not ignored
+	 */
+	public WorkingTreeStatus(int modified, int untracked) {
+		this.modified = modified;
+		this.untracked = untracked;
+	}
+
+	public int getModified() {
+		return modified;
+	}
+
+	public int getUntracked() {
+		return untracked;
+	}
+
+	/**
+	 * @return True if there are any modified or untracked files
+	 */
+	public boolean isDirty() {
+		return modified > 0 || untracked > 0;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof WorkingTreeStatus)) {
+			return false;
+		}
+		WorkingTreeStatus other = (WorkingTreeStatus) obj;
+		return modified == other.modified && untracked == other.untracked;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * modified + untracked;
+	}
+
+	@Override
+	public String toString() {
+		return "modified=" + modified + ", untracked=" + untracked;
+	}
+}
@@ -2,9 +2,19 @@ package org.csstudio.team.repomonitor.indicator;
 
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.csstudio.team.repomonitor.IRepoMonitorListener;
 import org.csstudio.team.repomonitor.RepoMonitorPlugin;
-import org.csstudio.team.repomonitor.RepoMonitorPlugin.RepoStatus;
+import org.csstudio.team.repomonitor.core.CommitSummary;
+import org.csstudio.team.repomonitor.core.IncomingCommits;
+import org.csstudio.team.repomonitor.core.RepoStatus;
+import org.csstudio.team.repomonitor.core.RepositoryStatus;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -35,12 +45,22 @@ public class RepoToolbarIndicator extends ContributionItem {
 	
 	public static final String DEFAULT_IMAGE = RepoMonitorPlugin.REPO_ERROR_ICON;
 	
+	public static final int MAX_MESSAGE_LENGTH = 60;
+	
 	private IndicateStatusJob indicateStatusJob = new IndicateStatusJob();
 	
+	private AtomicReference<IndicatorState> state = new AtomicReference<>(new IndicatorState(RepoStatus.ERROR, 0, 0, false));
+	
+	private AtomicBoolean updatePending = new AtomicBoolean(false);
+	
+	private RepoMonitorListener monitorListener = new RepoMonitorListener();
+	
 	private ToolItem indicator = null;
 	
 	private Menu indicatorMenu = null;
 	
+	private List<MenuItem> repositoryItems = new ArrayList<>();
+	
 	
 	public RepoToolbarIndicator() {
 		super(CONTRIBUTION_ID);
@@ -82,8 +102,178 @@ public class RepoToolbarIndicator extends ContributionItem {
 		m.setText("Repositories");
 		m.addSelectionListener(new GitRepositoryViewSelectionListener());
 
-		RepoMonitorPlugin.getDefault().addMonitorListener(new RepoMonitorListener());
-	}		
+		RepoMonitorPlugin.getDefault().addMonitorListener(monitorListener);
+		
+		// The indicator may be filled again, so show the current status.
+		indicateStatusJob.reset();
+		scheduleUpdate();
+	}
+	
+	/**
+	 * Schedule an update of the indicator, unless one is already pending.
+	 */
+	protected void scheduleUpdate() {
+		if(updatePending.compareAndSet(false, true)) {
+			indicateStatusJob.schedule();
+		}
+	}
+	
+	@Override
+	public void dispose() {
+		RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+		if(plugin != null) {
+			plugin.removeMonitorListener(monitorListener);
+		}
+		super.dispose();
+	}
+	
+	/**
+	 * Add a summary of the status of each repository to the top of the menu.
+	 * 
+	 * The statuses are read from the latest snapshot kept by the plugin,
+	 * so no repository is accessed on the UI thread. The incoming commits
+	 * of a repository that is behind are shown in a submenu, if they have
+	 * been found, otherwise they are found in the background for next time.
+	 */
+	protected void updateRepositoryItems() {
+		for(MenuItem item : repositoryItems) {
+			item.dispose();
+		}
+		repositoryItems.clear();
+		
+		List<RepositoryStatus> statuses = new ArrayList<>(RepoMonitorPlugin.getDefault().getRepositoryStatuses());
+		if(statuses.isEmpty()) {
+			return;
+		}
+		Collections.sort(statuses, new Comparator<RepositoryStatus>() {
+			@Override
+			public int compare(RepositoryStatus s1, RepositoryStatus s2) {
+				return s1.getName().compareToIgnoreCase(s2.getName());
+			}
+		});
+		
+		ImageRegistry imageRegistry = RepoMonitorPlugin.getDefault().getImageRegistry();
+		int index = 0;
+		for(RepositoryStatus status : statuses) {
+			IncomingCommits incoming = RepoMonitorPlugin.getDefault().getIncomingCommits(status);
+			MenuItem item;
+			if(incoming != null && !incoming.getCommits().isEmpty()) {
+				item = new MenuItem(indicatorMenu, SWT.CASCADE, index++);
+				item.setMenu(createIncomingMenu(status, incoming));
+			} else {
+				item = new MenuItem(indicatorMenu, SWT.NONE, index++);
+				item.setEnabled(false);
+			}
+			item.setText(getSummary(status));
+			item.setImage(imageRegistry.get(getImageKey(status.getStatus())));
+			repositoryItems.add(item);
+		}
+		repositoryItems.add(new MenuItem(indicatorMenu, SWT.SEPARATOR, index));
+	}
+	
+	/**
+	 * Create a submenu listing the incoming commits of a repository,
+	 * which is disposed with its cascade item.
+	 */
+	protected Menu createIncomingMenu(RepositoryStatus status, IncomingCommits incoming) {
+		Menu menu = new Menu(indicatorMenu);
+		int limit = RepoMonitorPlugin.getDefault().getIncomingCommitLimit();
+		long now = System.currentTimeMillis();
+		int shown = 0;
+		for(CommitSummary commit : incoming.getCommits()) {
+			if(shown >= limit) {
+				break;
+			}
+			MenuItem item = new MenuItem(menu, SWT.NONE);
+			item.setText(getSummary(commit, now));
+			item.setEnabled(false);
+			shown++;
+		}
+		int more = status.getCurrentBranch().getCommitsBehind() - shown;
+		if(more > 0) {
+			MenuItem item = new MenuItem(menu, SWT.NONE);
+			item.setText("(" + more + " More)");
+			item.setEnabled(false);
+		}
+		return menu;
+	}
+	
+	protected String getSummary(CommitSummary commit, long now) {
+		String message = commit.getShortMessage();
+		if(message.length() > MAX_MESSAGE_LENGTH) {
+			message = message.substring(0, MAX_MESSAGE_LENGTH - 3) + "...";
+		}
+		StringBuilder summary = new StringBuilder(commit.getId().abbreviate(7).name());
+		summary.append(" ").append(message);
+		summary.append(" (").append(commit.getAuthor()).append(", ");
+		summary.append(formatAge(Math.max(0, now - commit.getTime()))).append(" Ago)");
+		// Escape the mnemonic character in text from the repository.
+		return summary.toString().replace("&", "&&");
+	}
+	
+	protected String getSummary(RepositoryStatus status) {
+		StringBuilder summary = new StringBuilder(status.getName());
+		if(status.getBranch() != null) {
+			summary.append(" [").append(status.getBranch()).append("]");
+		}
+		summary.append(": ");
+		switch(status.getStatus()) {
+		case ERROR:
+			summary.append("Error");
+			break;
+		case SYNC:
+			summary.append("Synchronized");
+			break;
+		default:
+			summary.append(status.getCommitsAhead()).append(" Ahead, ");
+			summary.append(status.getCommitsBehind()).append(" Behind");
+		}
+		if(status.isDirty()) {
+			summary.append(" (").append(status.getWorkingTree().getModified()).append(" Modified, ");
+			summary.append(status.getWorkingTree().getUntracked()).append(" Untracked)");
+		}
+		if(status.isStale()) {
+			summary.append(" (Not Updated)");
+		}
+		if(status.isRemoteError()) {
+			summary.append(" (Remote Unreachable)");
+		}
+		RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+		long age = status.getRemoteAge(System.currentTimeMillis());
+		if(age >= 0 && (plugin.isOffline() || age > plugin.getMonitorDelay())) {
+			summary.append(" (Fetched ").append(formatAge(age)).append(" Ago)");
+		}
+		return summary.toString();
+	}
+	
+	protected static String formatAge(long age) {
+		long minutes = age / 60000;
+		if(minutes < 60) {
+			return Math.max(1, minutes) + "m";
+		}
+		long hours = minutes / 60;
+		if(hours < 48) {
+			return hours + "h";
+		}
+		return (hours / 24) + "d";
+	}
+	
+	protected static String getImageKey(RepoStatus status) {
+		switch(status) {
+		case SYNC:
+			return RepoMonitorPlugin.REPO_SYNC_ICON;
+		case AHEAD:
+			return RepoMonitorPlugin.REPO_AHEAD_ICON;
+		case BEHIND:
+			return RepoMonitorPlugin.REPO_BEHIND_ICON;
+		case DIVERGE:
+			return RepoMonitorPlugin.REPO_DIVERGE_ICON;
+		case BUSY:
+			return RepoMonitorPlugin.REPO_BUSY_ICON;
+		default:
+			return RepoMonitorPlugin.REPO_ERROR_ICON;
+		}
+	}
 	
 	protected class IndicatorSelectionListener extends SelectionAdapter {
 		
@@ -92,6 +282,7 @@ public class RepoToolbarIndicator extends ContributionItem {
 			if(event.detail == SWT.ARROW) {
 				Rectangle bounds = indicator.getBounds();
 				Point point = indicator.getParent().toDisplay(bounds.x, bounds.y);
+				updateRepositoryItems();
 				indicatorMenu.setLocation(point.x, point.y + bounds.height);
 				indicatorMenu.setVisible(true);				
 			} else {
@@ -132,78 +323,127 @@ public class RepoToolbarIndicator extends ContributionItem {
 		}
 	}
 	
+	/**
+	 * Publish the latest status and schedule a single update of the indicator,
+	 * so that a burst of status changes results in only one update.
+	 */
 	protected class RepoMonitorListener implements IRepoMonitorListener {
 
 		@Override
-		public void status(RepoStatus status, int commitsAhead, int commitsBehind) {
-			if(indicateStatusJob != null) {
-				indicateStatusJob.setStatus(status);
-				indicateStatusJob.setCommitsAhead(commitsAhead);
-				indicateStatusJob.setCommitsBehind(commitsBehind);
-				indicateStatusJob.schedule();
-			}
+		public void status(RepoStatus status, int commitsAhead, int commitsBehind, boolean stale) {
+			state.set(new IndicatorState(status, commitsAhead, commitsBehind, stale));
+			scheduleUpdate();
 		}
 	}
 	
-	protected class IndicateStatusJob extends UIJob {
-
-		private int commitsAhead;
+	/**
+	 * Immutable status shown by the indicator.
+	 */
+	protected static class IndicatorState {
 		
-		private int commitsBehind;
+		private final RepoStatus status;
 		
-		private RepoStatus status;
+		private final int commitsAhead;
 		
-		public IndicateStatusJob() {
-			super("Update Repo Monitor Toolbar Indicator Job");
-		}
-
-		public void setCommitsAhead(int commitsAhead) {
+		private final int commitsBehind;
+		
+		private final boolean stale;
+		
+		/**
+		 * @param stale True if the status includes any restored status not yet updated
+		 */
+		public IndicatorState(RepoStatus status, int commitsAhead, int commitsBehind, boolean stale) {
+			this.status = status;
 			this.commitsAhead = commitsAhead;
-		}
-
-		public void setCommitsBehind(int commitsBehind) {
 			this.commitsBehind = commitsBehind;
+			this.stale = stale;
 		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof IndicatorState)) {
+				return false;
+			}
+			IndicatorState other = (IndicatorState) obj;
+			return status == other.status && commitsAhead == other.commitsAhead && commitsBehind == other.commitsBehind
+					&& stale == other.stale;
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((status.hashCode() * 31 + commitsAhead) * 31 + commitsBehind) * 31 + (stale ? 1 : 0);
+		}
+	}
+	
+	protected class IndicateStatusJob extends UIJob {
 
-		public void setStatus(RepoStatus status) {
-			this.status = status;
+		private IndicatorState displayed = null;
+		
+		public IndicateStatusJob() {
+			super("Update Repo Monitor Toolbar Indicator Job");
+			setSystem(true);
+		}
+		
+		/**
+		 * Forget the displayed status, so that the next update is always applied.
+		 */
+		public void reset() {
+			displayed = null;
 		}
 
 		@Override
 		public IStatus runInUIThread(IProgressMonitor monitor) {
+			
+			// Clear the flag first, so a status published from now on schedules another update.
+			updatePending.set(false);
+			IndicatorState current = state.get();
+			if(current.equals(displayed) || indicator == null || indicator.isDisposed()) {
+				return Status.OK_STATUS;
+			}
+			displayed = current;
+			
+			int commitsAhead = current.commitsAhead;
+			int commitsBehind = current.commitsBehind;
 
 			ImageRegistry imageRegistry = RepoMonitorPlugin.getDefault().getImageRegistry();
 			
-			switch(status) {
+			String toolTipText = null;
+			switch(current.status) {
 			case SYNC:
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_SYNC_ICON));
-				setToolTipText("Repository: Synchonized");
+				toolTipText = "Repository: Synchonized";
 				break;
 			
 			case AHEAD:
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_AHEAD_ICON));
-				setToolTipText("Repository: " + commitsAhead + " Ahead");
+				toolTipText = "Repository: " + commitsAhead + " Ahead";
 				break;
 				
 			case BEHIND:
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_BEHIND_ICON));
-				setToolTipText("Repository: " + commitsBehind + " Behind");
+				toolTipText = "Repository: " + commitsBehind + " Behind";
 				break;
 				
 			case DIVERGE:
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_DIVERGE_ICON));
-				setToolTipText("Repository: " + commitsAhead + " Ahead, " + commitsBehind + " Behind");
+				toolTipText = "Repository: " + commitsAhead + " Ahead, " + commitsBehind + " Behind";
 				break;
 				
 			case ERROR:			
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_ERROR_ICON));
-				setToolTipText("Repository Error: See Log for Information");
+				toolTipText = "Repository Error: See Log for Information";
 				break;
 				
 			case BUSY:
 				setImage(imageRegistry.get(RepoMonitorPlugin.REPO_BUSY_ICON));
-				setToolTipText("Repository: Refreshing");
+				toolTipText = "Repository: Refreshing";
+			}
+			
+			// Restored statuses are shown until updated, but marked as such.
+			if(current.stale && current.status != RepoStatus.BUSY) {
+				toolTipText += " (Not Updated)";
 			}
+			setToolTipText(toolTipText);
 			
 			return Status.OK_STATUS;
 		}	
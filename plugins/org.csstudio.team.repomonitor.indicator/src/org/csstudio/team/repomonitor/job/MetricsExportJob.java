@@ -0,0 +1,64 @@
+package org.csstudio.team.repomonitor.job;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+import org.csstudio.team.repomonitor.RepoMonitorPlugin;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Periodically export the monitor metrics to the log or to a file.
+ */
+public class MetricsExportJob extends Job {
+
+	private boolean shouldSchedule = true;
+
+	public MetricsExportJob() {
+		super("Repository Monitor Metrics Export Job");
+		setSystem(true);
+	}
+
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+		long interval = plugin.getMetricsExportInterval();
+		if(interval <= 0) {
+			return Status.OK_STATUS;
+		}
+
+		String report = plugin.getMetrics().report();
+		File file = plugin.getMetricsExportFile();
+		if(file == null) {
+			plugin.getLog().log(new Status(Status.INFO, RepoMonitorPlugin.PLUGIN_ID, report));
+		} else {
+			try {
+				Writer writer = new FileWriter(file, true);
+				try {
+					writer.write(new Date() + " " + report + "\n");
+				} finally {
+					writer.close();
+				}
+			} catch(IOException e) {
+				plugin.getLog().log(new Status(Status.WARNING, RepoMonitorPlugin.PLUGIN_ID, "Error while exporting metrics to file: " + file, e));
+			}
+		}
+
+		schedule(interval);
+		return Status.OK_STATUS;
+	}
+
+	@Override
+	public boolean shouldSchedule() {
+		return shouldSchedule;
+	}
+
+	public void setShouldSchedule(boolean shouldSchedule) {
+		this.shouldSchedule = shouldSchedule;
+	}
+}
@@ -0,0 +1,148 @@
+package org.csstudio.team.repomonitor.job;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.egit.core.project.RepositoryMapping;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Index of the Git repositories of the workspace projects.
+ *
+ * The index is built once by checking the mapping of every project, and
+ * is then kept up to date from resource change events, so that only the
+ * projects that were added, removed, opened, closed or changed since the
+ * last request need to be checked again.
+ */
+public class ProjectRepositoryIndex implements IResourceChangeListener {
+
+	private static final int PROJECT_FLAGS = IResourceDelta.OPEN | IResourceDelta.DESCRIPTION;
+
+	private Map<IProject,Repository> mappings = new ConcurrentHashMap<>();
+
+	private Set<IProject> changed = Collections.newSetFromMap(new ConcurrentHashMap<IProject,Boolean>());
+
+	private volatile boolean valid = false;
+
+	private boolean started = false;
+
+	/**
+	 * Start listening for resource changes.
+	 */
+	public synchronized void start() {
+		if(!started) {
+			getWorkspace().addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE
+					| IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+			started = true;
+			valid = false;
+		}
+	}
+
+	/**
+	 * Stop listening for resource changes and discard the index.
+	 */
+	public synchronized void stop() {
+		if(started) {
+			getWorkspace().removeResourceChangeListener(this);
+			started = false;
+		}
+		invalidate();
+	}
+
+	/**
+	 * Discard the index so that it is rebuilt on the next request.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Get the repositories of the workspace projects.
+	 *
+	 * @return Map of each repository to the projects it contains
+	 */
+	public synchronized Map<Repository,List<IProject>> getRepositories() {
+		if(!valid || !started) {
+			// Clear the changes first, so none are lost while rebuilding.
+			changed.clear();
+			valid = started;
+			mappings.clear();
+			for(IProject project : getWorkspace().getRoot().getProjects()) {
+				update(project);
+			}
+		} else {
+			for(IProject project : new ArrayList<>(changed)) {
+				changed.remove(project);
+				update(project);
+			}
+		}
+
+		Map<Repository,List<IProject>> repositories = new HashMap<>();
+		for(Map.Entry<IProject,Repository> entry : mappings.entrySet()) {
+			List<IProject> projects = repositories.get(entry.getValue());
+			if(projects == null) {
+				projects = new ArrayList<>();
+				repositories.put(entry.getValue(), projects);
+			}
+			projects.add(entry.getKey());
+		}
+		return repositories;
+	}
+
+	protected void update(IProject project) {
+		RepositoryMapping mapping = null;
+		if(project.isAccessible()) {
+			mapping = RepositoryMapping.getMapping(project);
+		}
+		if(mapping != null) {
+			mappings.put(project, mapping.getRepository());
+		} else {
+			mappings.remove(project);
+		}
+	}
+
+	@Override
+	public void resourceChanged(IResourceChangeEvent event) {
+		if(event.getType() == IResourceChangeEvent.POST_CHANGE) {
+			IResourceDelta delta = event.getDelta();
+			if(delta == null) {
+				return;
+			}
+			for(IResourceDelta projectDelta : delta.getAffectedChildren()) {
+				IResource resource = projectDelta.getResource();
+				if(resource.getType() != IResource.PROJECT) {
+					continue;
+				}
+				IProject project = (IProject) resource;
+				// Projects without a mapping are checked again on any change,
+				// since sharing a project does not change its description.
+				if(projectDelta.getKind() != IResourceDelta.CHANGED
+						|| (projectDelta.getFlags() & PROJECT_FLAGS) != 0
+						|| !mappings.containsKey(project)) {
+					changed.add(project);
+				}
+			}
+		} else if(event.getResource() instanceof IProject) {
+			// Project is about to be closed or deleted.
+			IProject project = (IProject) event.getResource();
+			mappings.remove(project);
+			changed.add(project);
+		}
+	}
+
+	protected IWorkspace getWorkspace() {
+		return ResourcesPlugin.getWorkspace();
+	}
+}
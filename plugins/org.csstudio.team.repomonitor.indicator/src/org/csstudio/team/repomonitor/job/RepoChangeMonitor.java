@@ -0,0 +1,365 @@
+package org.csstudio.team.repomonitor.job;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.csstudio.team.repomonitor.RepoMonitorPlugin;
+import org.csstudio.team.repomonitor.core.RepositoryMonitor;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.egit.core.project.RepositoryMapping;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Refresh the status of a repository as soon as its local refs change.
+ *
+ * Changes are detected from JGit ref change events (ie operations done
+ * with EGit) and by watching the ref files of each repository (ie commands
+ * run from the command line). The ahead and behind counts of the affected
+ * repository are then recomputed from the local refs, without a fetch.
+ *
+ * Files changed in the workspace are reported to the monitor from the
+ * resource deltas, so that the refresh only scans those paths of the
+ * working tree for uncommitted changes.
+ */
+public class RepoChangeMonitor {
+
+	/**
+	 * Short delay used to coalesce the several file events of a single ref update.
+	 */
+	public static final long REFRESH_DELAY = 100;
+
+	private static final String LOCK_FILE_SUFFIX = ".lock";
+
+	private RepositoryMonitor repositoryMonitor;
+
+	private Map<File,RepoFetchJob> refreshJobs = new ConcurrentHashMap<>();
+
+	private Map<WatchKey,Repository> watchKeys = new ConcurrentHashMap<>();
+
+	private ListenerHandle refsChangedHandle;
+
+	private WatchService watchService;
+
+	private IResourceChangeListener resourceListener;
+
+	public RepoChangeMonitor(RepositoryMonitor repositoryMonitor) {
+		this.repositoryMonitor = repositoryMonitor;
+	}
+
+	/**
+	 * Start listening for ref changes.
+	 */
+	public synchronized void start() {
+		if(refsChangedHandle != null) {
+			return;
+		}
+		refsChangedHandle = Repository.getGlobalListenerList().addRefsChangedListener(new RepoRefsChangedListener());
+		resourceListener = new WorkingTreeChangeListener();
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(resourceListener, IResourceChangeEvent.POST_CHANGE);
+		repositoryMonitor.setTrackingChanges(true);
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			Thread thread = new WatchThread(watchService);
+			thread.setDaemon(true);
+			thread.start();
+		} catch(IOException e) {
+			watchService = null;
+			log("Unable to watch repository refs, changes made outside the workbench will be detected later", e);
+		}
+		for(RepoFetchJob job : refreshJobs.values()) {
+			watch(job.getRepository());
+		}
+	}
+
+	/**
+	 * Stop listening for ref changes.
+	 */
+	public synchronized void stop() {
+		if(refsChangedHandle != null) {
+			refsChangedHandle.remove();
+			refsChangedHandle = null;
+		}
+		if(resourceListener != null) {
+			ResourcesPlugin.getWorkspace().removeResourceChangeListener(resourceListener);
+			resourceListener = null;
+			repositoryMonitor.setTrackingChanges(false);
+		}
+		if(watchService != null) {
+			try {
+				watchService.close();
+			} catch(IOException e) {
+				// ignore //
+			}
+			watchService = null;
+		}
+		watchKeys.clear();
+		for(RepoFetchJob job : refreshJobs.values()) {
+			job.cancel();
+		}
+	}
+
+	/**
+	 * Set the repositories to be monitored for changes.
+	 */
+	public synchronized void setRepositories(Collection<Repository> repositories) {
+		Map<File,Repository> directories = new HashMap<>();
+		for(Repository repository : repositories) {
+			directories.put(repository.getDirectory(), repository);
+		}
+
+		Iterator<Map.Entry<File,RepoFetchJob>> jobs = refreshJobs.entrySet().iterator();
+		while(jobs.hasNext()) {
+			Map.Entry<File,RepoFetchJob> entry = jobs.next();
+			if(!directories.containsKey(entry.getKey())) {
+				entry.getValue().cancel();
+				jobs.remove();
+			}
+		}
+
+		Iterator<Map.Entry<WatchKey,Repository>> keys = watchKeys.entrySet().iterator();
+		while(keys.hasNext()) {
+			Map.Entry<WatchKey,Repository> entry = keys.next();
+			if(!directories.containsKey(entry.getValue().getDirectory())) {
+				entry.getKey().cancel();
+				keys.remove();
+			}
+		}
+
+		for(Repository repository : directories.values()) {
+			if(!refreshJobs.containsKey(repository.getDirectory())) {
+				RepoFetchJob job = new RepoFetchJob(repositoryMonitor.newUpdater(repository, false));
+				job.setSystem(true);
+				job.addJobChangeListener(new PublishStatusListener());
+				refreshJobs.put(repository.getDirectory(), job);
+				if(watchService != null) {
+					watch(repository);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recompute the status of the repository from its local refs.
+	 *
+	 * Requests made in quick succession are coalesced into a single refresh.
+	 */
+	public void refresh(File directory) {
+		RepoFetchJob job = refreshJobs.get(directory);
+		if(job != null) {
+			job.schedule(REFRESH_DELAY);
+		}
+	}
+
+	/**
+	 * Register the directories containing the branch refs of the repository with the watch service.
+	 */
+	protected void watch(Repository repository) {
+		File directory = repository.getDirectory();
+		watch(repository, directory);
+		watchTree(repository, new File(directory, Constants.R_HEADS));
+		watchTree(repository, new File(directory, Constants.R_REMOTES));
+	}
+
+	protected void watchTree(Repository repository, File directory) {
+		if(watch(repository, directory)) {
+			File[] children = directory.listFiles();
+			if(children != null) {
+				for(File child : children) {
+					if(child.isDirectory()) {
+						watchTree(repository, child);
+					}
+				}
+			}
+		}
+	}
+
+	protected boolean watch(Repository repository, File directory) {
+		WatchService service = watchService;
+		if(service == null || !directory.isDirectory()) {
+			return false;
+		}
+		try {
+			WatchKey key = directory.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			watchKeys.put(key, repository);
+			return true;
+		} catch(IOException | ClosedWatchServiceException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check if a file event in the given directory may indicate a change to a branch ref.
+	 */
+	protected boolean isRefChange(Repository repository, Path directory, Path name) {
+		String fileName = name.toString();
+		if(fileName.endsWith(LOCK_FILE_SUFFIX)) {
+			return false;
+		}
+		if(directory.toFile().equals(repository.getDirectory())) {
+			return fileName.equals(Constants.HEAD) || fileName.equals(Constants.PACKED_REFS);
+		}
+		return true;
+	}
+
+	protected static void log(String message, Exception e) {
+		RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+		if(plugin != null) {
+			plugin.getLog().log(new Status(Status.WARNING, RepoMonitorPlugin.PLUGIN_ID, message, e));
+		}
+	}
+
+	protected class RepoRefsChangedListener implements RefsChangedListener {
+
+		@Override
+		public void onRefsChanged(RefsChangedEvent event) {
+			Repository repository = event.getRepository();
+			if(repository != null) {
+				refresh(repository.getDirectory());
+			}
+		}
+	}
+
+	/**
+	 * Report the files changed in the workspace to the monitor, and refresh their repositories.
+	 */
+	protected class WorkingTreeChangeListener implements IResourceChangeListener, IResourceDeltaVisitor {
+
+		private static final int CONTENT_FLAGS = IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.TYPE;
+
+		private Set<File> changed = new HashSet<>();
+
+		@Override
+		public void resourceChanged(IResourceChangeEvent event) {
+			IResourceDelta delta = event.getDelta();
+			if(delta == null) {
+				return;
+			}
+			changed.clear();
+			try {
+				delta.accept(this);
+			} catch(CoreException e) {
+				log("Unable to process workspace changes", e);
+			}
+			for(File directory : changed) {
+				refresh(directory);
+			}
+		}
+
+		@Override
+		public boolean visit(IResourceDelta delta) throws CoreException {
+			IResource resource = delta.getResource();
+			if(resource.isTeamPrivateMember()) {
+				return false;
+			}
+			if(resource.getType() != IResource.FILE) {
+				return true;
+			}
+			if(delta.getKind() == IResourceDelta.CHANGED && (delta.getFlags() & CONTENT_FLAGS) == 0) {
+				return false;
+			}
+			RepositoryMapping mapping = RepositoryMapping.getMapping(resource);
+			if(mapping != null) {
+				String path = mapping.getRepoRelativePath(resource);
+				if(path != null) {
+					File directory = mapping.getRepository().getDirectory();
+					repositoryMonitor.touch(directory, path);
+					changed.add(directory);
+				}
+			}
+			return false;
+		}
+	}
+
+	protected class PublishStatusListener extends JobChangeAdapter {
+
+		@Override
+		public void done(IJobChangeEvent event) {
+			RepoFetchJob job = (RepoFetchJob) event.getJob();
+			RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+			if(event.getResult().getSeverity() == IStatus.CANCEL) {
+				return;
+			}
+			if(plugin != null && refreshJobs.get(job.getRepositoryDirectory()) == job) {
+				plugin.setRepositoryStatus(job.getRepositoryStatus());
+			}
+		}
+	}
+
+	protected class WatchThread extends Thread {
+
+		private WatchService service;
+
+		public WatchThread(WatchService service) {
+			super("Repository Monitor Watch Thread");
+			this.service = service;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(true) {
+					WatchKey key = service.take();
+					Repository repository = watchKeys.get(key);
+					Path directory = (Path) key.watchable();
+					boolean changed = false;
+					for(WatchEvent<?> event : key.pollEvents()) {
+						if(repository == null) {
+							continue;
+						}
+						if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							changed = true;
+							continue;
+						}
+						Path name = (Path) event.context();
+						File file = directory.resolve(name).toFile();
+						if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && file.isDirectory()
+								&& !directory.toFile().equals(repository.getDirectory())) {
+							// New branch namespace (ie 'feature/...')
+							watchTree(repository, file);
+						}
+						if(isRefChange(repository, directory, name)) {
+							changed = true;
+						}
+					}
+					if(!key.reset()) {
+						watchKeys.remove(key);
+					}
+					if(changed) {
+						refresh(repository.getDirectory());
+					}
+				}
+			} catch(InterruptedException | ClosedWatchServiceException e) {
+				// Watch service closed, stop watching. //
+			}
+		}
+	}
+}
@@ -1,156 +1,112 @@
 package org.csstudio.team.repomonitor.job;
 
-import java.io.IOException;
+import java.io.File;
 
 import org.csstudio.team.repomonitor.RepoMonitorPlugin;
+import org.csstudio.team.repomonitor.core.FetchScheduler;
+import org.csstudio.team.repomonitor.core.IFetchTask;
+import org.csstudio.team.repomonitor.core.MonitorException;
+import org.csstudio.team.repomonitor.core.RepositoryStatus;
+import org.csstudio.team.repomonitor.core.RepositoryUpdater;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.jgit.api.FetchCommand;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.egit.core.EclipseGitProgressTransformer;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.ReflogEntry;
-import org.eclipse.jgit.storage.file.ReflogReader;
 
-public class RepoFetchJob extends Job {
+/**
+ * Job that runs a {@link RepositoryUpdater} to update the status of a single repository.
+ */
+public class RepoFetchJob extends Job implements IFetchTask {
 
-	private static final String REMOTE_BRANCH_PREFIX = "refs/remotes/";
+	private RepositoryUpdater updater;
 	
-	private static final int MAX_LOG_SEARCH_DEPTH = 1000;
-	
-	
-	private Repository repository;
-	
-	private int remoteBranchAhead;
+	public RepoFetchJob(RepositoryUpdater updater) {
+		super(updater.isFetch() ? "Fetch Repository" : "Refresh Repository");
+		this.updater = updater;
+	}
 	
-	private int trackingBranchAhead;
+	public RepositoryUpdater getUpdater() {
+		return updater;
+	}
 	
-	public RepoFetchJob(Repository repository) {
-		super("Fetch Repository");
-		this.repository = repository;
+	public Repository getRepository() {
+		return updater.getRepository();
 	}
 
-	public int getRemoteBranchAhead() {
-		return remoteBranchAhead;
+	/**
+	 * @return The repository (.git) directory
+	 */
+	public File getRepositoryDirectory() {
+		return updater.getRepositoryDirectory();
 	}
-
-	public int getTrackingBranchAhead() {
-		return trackingBranchAhead;
+	
+	/**
+	 * @return Name of the repository working directory
+	 */
+	public String getRepositoryName() {
+		return updater.getRepositoryName();
 	}
 	
-	protected String getRemoteBranch() {
-		// Consider checking git config for remote
-		// associated with the current branch.
-		String current;
-		try {
-			current = "/" + repository.getBranch();
-		} catch(IOException e) {
-			return null;
-		}
-		for(String branch : repository.getAllRefs().keySet()) {
-			if(branch.startsWith(REMOTE_BRANCH_PREFIX) && branch.endsWith(current)) {
-				return branch;
-			}
-		}
-		return null;
+	@Override
+	public String getRemoteHost() {
+		return updater.getRemoteHost();
 	}
 	
-	protected String getTrackingBranch() {
-		try {
-			return repository.getFullBranch();
-		} catch (IOException e) {
-			return null;
-		}
+	/**
+	 * Get the status of the repository determined by this job.
+	 * 
+	 * @return The repository status, or an error status if the job has not completed
+	 */
+	public RepositoryStatus getRepositoryStatus() {
+		return updater.getRepositoryStatus();
+	}
+	
+	/**
+	 * @return True if the last fetch updated any remote tracking refs
+	 */
+	public boolean isRemoteChanged() {
+		return updater.isRemoteChanged();
+	}
+	
+	@Override
+	public void start(FetchScheduler scheduler) {
+		addJobChangeListener(new SchedulerDoneListener(scheduler));
+		schedule();
 	}
 	
 	@Override
 	protected IStatus run(IProgressMonitor monitor) {
-		
-		monitor.beginTask("Fetch Repository", 2);
-		
-		FetchCommand cmd = Git.wrap(repository).fetch();
-		// Enabling a 'dry-run' is broken;
-		// an actual fetch is executed instead.
-		// cmd.setDryRun(true);
-		try {
-			cmd.call();	
-		} catch(GitAPIException e) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while executing 'fetch' commannd", e);
-		} catch(JGitInternalException e) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Exception while executing 'fetch' commannd", e);
-		}
-		
-		monitor.worked(1);
-		
-		String remoteBranch = getRemoteBranch();
-		if(remoteBranch == null) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while getting remote branch name");
-		}
-		
-		String trackingBranch = getTrackingBranch();
-		if(trackingBranch == null) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while getting tracking branch name");
+		updater.update(new EclipseGitProgressTransformer(monitor));
+		monitor.done();
+		if(updater.isCanceled()) {
+			return Status.CANCEL_STATUS;
 		}
-		
-		ReflogReader remoteBranchRefLog;
-		try {
-			remoteBranchRefLog = repository.getReflogReader(remoteBranch);
-		} catch (IOException e) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while reading remote branch reflog.", e);
+		MonitorException e = updater.getException();
+		if(e == null) {
+			return Status.OK_STATUS;
 		}
+		return new Status(e.isWarning() ? Status.WARNING : Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, e.getMessage(), e.getCause());
+	}
+	
+	/**
+	 * Notify the scheduler when the job is done.
+	 */
+	protected static class SchedulerDoneListener extends JobChangeAdapter {
 		
-		if(remoteBranchRefLog == null) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "No reflog found for branch: " + remoteBranch);
-		}
+		private FetchScheduler scheduler;
 		
-		ReflogReader trackingBranchRefLog;
-		try {
-			trackingBranchRefLog = repository.getReflogReader(trackingBranch);
-		} catch(IOException e) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while reading tracking branch reflog.", e);
+		public SchedulerDoneListener(FetchScheduler scheduler) {
+			this.scheduler = scheduler;
 		}
 		
-		if(trackingBranchRefLog == null) {
-			return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "No reflog found for branch: " + trackingBranch);
+		@Override
+		public void done(IJobChangeEvent event) {
+			event.getJob().removeJobChangeListener(this);
+			scheduler.done((RepoFetchJob) event.getJob());
 		}
-		
-		ReflogEntry remoteBranchEntry;
-		ReflogEntry trackingBranchEntry;
-		for(int tidx = 0; tidx < MAX_LOG_SEARCH_DEPTH; tidx++) {
-			try {
-				trackingBranchEntry  = trackingBranchRefLog.getReverseEntry(tidx);
-			} catch (IOException e) {
-				return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while reading tracking branch reflog entry: " + tidx, e);
-			}
-			
-			if(trackingBranchEntry == null) {
-				break;
-			}
-			
-			for(int ridx = 0; ridx < MAX_LOG_SEARCH_DEPTH; ridx++) {
-				try {
-					remoteBranchEntry = remoteBranchRefLog.getReverseEntry(ridx);
-				} catch(IOException e) {
-					return new Status(Status.ERROR, RepoMonitorPlugin.PLUGIN_ID, "Error while reading remote branch reflog entry: " + ridx, e); 
-				}
-				
-				if(remoteBranchEntry == null) {
-					break;
-				}
-				
-				if(remoteBranchEntry.getNewId().equals(trackingBranchEntry.getNewId())) {
-					remoteBranchAhead = ridx;
-					trackingBranchAhead = tidx;
-					return Status.OK_STATUS;
-				}
-			}
-		}
-		
-		monitor.worked(1);
-		
-		return new Status(Status.WARNING, RepoMonitorPlugin.PLUGIN_ID, "Remote branch and tracking branch have no common ancestor.");
 	}
 }
@@ -1,98 +1,169 @@
 package org.csstudio.team.repomonitor.job;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.csstudio.team.repomonitor.RepoMonitorPlugin;
+import org.csstudio.team.repomonitor.core.FetchScheduler;
+import org.csstudio.team.repomonitor.core.RepositoryMonitor;
+import org.csstudio.team.repomonitor.core.RepositoryUpdater;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
 import org.eclipse.core.runtime.jobs.MultiRule;
-import org.eclipse.egit.core.project.RepositoryMapping;
+import org.eclipse.egit.core.EclipseGitProgressTransformer;
 import org.eclipse.jgit.lib.Repository;
 
+/**
+ * Job that runs the cycles of the {@link RepositoryMonitor} for the
+ * repositories of the workspace projects.
+ */
 public class RepoMonitorJob extends Job {
 
 	private boolean shouldSchedule = true;
 	
-	public RepoMonitorJob() {
+	private RepositoryMonitor repositoryMonitor;
+	
+	private RepoChangeMonitor changeMonitor;
+	
+	private ProjectRepositoryIndex projectIndex = new ProjectRepositoryIndex();
+	
+	private volatile boolean forceUpdate = false;
+	
+	public RepoMonitorJob(RepositoryMonitor repositoryMonitor) {
 		super("Repository Monitor Job");
+		this.repositoryMonitor = repositoryMonitor;
+		this.changeMonitor = new RepoChangeMonitor(repositoryMonitor);
 	}
 	
 	
 	@Override
 	protected IStatus run(IProgressMonitor monitor) {
 		RepoMonitorPlugin plugin = RepoMonitorPlugin.getDefault();
+		long start = System.nanoTime();
 		
-		plugin.setBusy();
-		
-		Map<Repository,ArrayList<IProject>> repositories = new HashMap<>();	
-		for(IProject project : ResourcesPlugin.getWorkspace().getRoot().getProjects()) {
-			RepositoryMapping mapping = RepositoryMapping.getMapping(project);
-			if(mapping != null) {
-				Repository repository = mapping.getRepository();
-				if(!repositories.containsKey(repository)) {
-					repositories.put(repository, new ArrayList<IProject>());
-				} 
-				repositories.get(repository).add(project);
-			}
+		if(forceUpdate) {
+			projectIndex.invalidate();
+		}
+		Map<Repository,List<IProject>> repositories = projectIndex.getRepositories();
+		
+		repositoryMonitor.setRepositories(repositories.keySet());
+		changeMonitor.setRepositories(repositories.keySet());
+		
+		List<Repository> due = repositoryMonitor.selectDue(System.currentTimeMillis(), forceUpdate);
+		
+		// Repositories that are not due are only checked against their remote tracking refs.
+		for(Repository repository : repositoryMonitor.selectRefresh(due, System.currentTimeMillis(), forceUpdate)) {
+			changeMonitor.refresh(repository.getDirectory());
 		}
+		forceUpdate = false;
+		
+		long deadline = repositoryMonitor.getCycleDeadline(start);
+		FetchScheduler scheduler = repositoryMonitor.newFetchScheduler(deadline);
 		
 		List<RepoFetchJob> repoFetchJobs = new ArrayList<>();
-		for(Map.Entry<Repository,ArrayList<IProject>> entry : repositories.entrySet()) {
-			RepoFetchJob job = new RepoFetchJob(entry.getKey());
-			job.setRule(new MultiRule(entry.getValue().toArray(new IProject[entry.getValue().size()])));
+		for(Repository repository : due) {
+			List<IProject> projects = repositories.get(repository);
+			RepositoryUpdater updater = repositoryMonitor.newUpdater(repository, true);
+			updater.setDeadline(deadline);
+			RepoFetchJob job = new RepoFetchJob(updater);
+			job.setRule(new MultiRule(projects.toArray(new IProject[projects.size()])));
 			job.setProgressGroup(monitor, 1);
+			job.addJobChangeListener(new PublishStatusListener());
 			repoFetchJobs.add(job);
-			job.schedule();
+			scheduler.add(job, getLastActivity(repository, projects));
 		}
 		
-		monitor.beginTask("Repository Monitor", repositories.size());
-		
-		if(monitor.isCanceled()) {
-			plugin.setStatus(plugin.getCommitsAhead(), plugin.getCommitsBehind());
-			schedule(plugin.getMonitorDelay());
-			return Status.CANCEL_STATUS;
+		if(!repoFetchJobs.isEmpty()) {
+			plugin.setBusy();
 		}
 		
-		int remoteBranchAhead = 0;
-		int trackingBranchAhead = 0;
-		boolean error = false;
+		monitor.beginTask("Repository Monitor", repoFetchJobs.size());
 		
+		scheduler.run(new EclipseGitProgressTransformer(monitor));
+		
+		// Record the repositories updated before the cycle was canceled or ran out
+		// of time, the others remain due and are updated in the next cycle.
+		long now = System.currentTimeMillis();
 		for(RepoFetchJob job : repoFetchJobs) {
-			try {
-				job.join();
-			} catch (InterruptedException e) {
-				error = true;
-			}
-			
-			if(job.getResult().isOK()) {
-				remoteBranchAhead += job.getRemoteBranchAhead();
-				trackingBranchAhead += job.getTrackingBranchAhead();
+			if(scheduler.isTimedOut(job)) {
+				plugin.getLog().log(new Status(Status.WARNING, RepoMonitorPlugin.PLUGIN_ID, "Timeout while fetching repository: " + job.getRepositoryName()));
+				repositoryMonitor.timedOut(job.getUpdater(), now);
+			} else if(scheduler.isDeferred(job) || job.getResult() == null) {
+				repositoryMonitor.deferred(job.getUpdater());
 			} else {
-				error = true;
+				repositoryMonitor.completed(job.getUpdater(), now);
 			}
-			
-			monitor.worked(1);
 		}
 		
-		if(error) {
-			plugin.setError();
-		} else {
-			plugin.setStatus(trackingBranchAhead, remoteBranchAhead);
-		}
+		plugin.updateStatus();
+		
+		long delay = repositoryMonitor.endCycle(start, repoFetchJobs.size(), now);
 		
+		if(monitor.isCanceled()) {
+			schedule(plugin.getMonitorDelay());
+			return Status.CANCEL_STATUS;
+		}
 		
-		schedule(plugin.getMonitorDelay());
+		schedule(delay);
 		
 		return Status.OK_STATUS;
 	}
 
+	/**
+	 * Get the time of the most recent activity in the repository or its projects,
+	 * used to fetch the most active repositories first.
+	 */
+	protected long getLastActivity(Repository repository, List<IProject> projects) {
+		long lastActivity = repositoryMonitor.getLastActivity(repository);
+		for(IProject project : projects) {
+			lastActivity = Math.max(lastActivity, project.getLocalTimeStamp());
+		}
+		return lastActivity;
+	}
+
+	/**
+	 * Publish the status of each repository as soon as its fetch job is done.
+	 */
+	protected class PublishStatusListener extends JobChangeAdapter {
+		
+		@Override
+		public void done(IJobChangeEvent event) {
+			RepoFetchJob job = (RepoFetchJob) event.getJob();
+			job.removeJobChangeListener(this);
+			if(event.getResult().getSeverity() != IStatus.CANCEL) {
+				RepoMonitorPlugin.getDefault().setRepositoryStatus(job.getRepositoryStatus());
+			}
+		}
+	}
+
+	/**
+	 * Set if all repositories should be fetched in the next cycle,
+	 * regardless of their polling interval.
+	 */
+	public void setForceUpdate(boolean forceUpdate) {
+		this.forceUpdate = forceUpdate;
+	}
+
+	/**
+	 * @return The index of the repositories of the workspace projects
+	 */
+	public ProjectRepositoryIndex getProjectIndex() {
+		return projectIndex;
+	}
+
+	/**
+	 * @return The monitor used to refresh repositories when their local refs change
+	 */
+	public RepoChangeMonitor getChangeMonitor() {
+		return changeMonitor;
+	}
+
 	@Override
 	public boolean shouldSchedule() {
 		return shouldSchedule;